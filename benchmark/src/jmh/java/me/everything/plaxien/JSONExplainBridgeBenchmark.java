@@ -0,0 +1,79 @@
+package me.everything.plaxien;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import me.everything.plaxien.json.JSONExplainBridge;
+
+/**
+ * Parsing third party JSON into explain trees, through the DOM, streaming and lazy paths of the bridge
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class JSONExplainBridgeBenchmark {
+
+    @Param({TreeShapes.WIDE, TreeShapes.DEEP, TreeShapes.REALISTIC})
+    public String shape;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    String mJson;
+    byte[] mBytes;
+    JSONExplainBridge mBridge = new JSONExplainBridge();
+
+    @Setup
+    public void setUp() throws IOException {
+        mJson = TreeShapes.json(shape, size);
+        mBytes = mJson.getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public Explain.Node parseDom() {
+        return mBridge.parseJSON(new JsonParser().parse(mJson), "root", true);
+    }
+
+    @Benchmark
+    public Explain.Node parseString() {
+        return mBridge.parseJSON(mJson, "root", true);
+    }
+
+    @Benchmark
+    public Explain.Node parseStream() throws IOException {
+        return mBridge.parseJSON(new ByteArrayInputStream(mBytes), "root", true);
+    }
+
+    /**
+     * Opening a lazy tree, as ExplainActivity does - only the top two levels are parsed
+     */
+    @Benchmark
+    public Explain.Node parseLazyTopLevels() {
+        Explain.Node root = mBridge.parseLazy(ByteBuffer.wrap(mBytes), "root", true);
+        for (Explain.BaseNode child : root.getChildren()) {
+            if (child.type == Explain.BaseNode.NODE) {
+                ((Explain.Node) child).getChildren();
+            }
+        }
+        return root;
+    }
+}
@@ -0,0 +1,83 @@
+package me.everything.plaxien;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Internal serialization round trips - the streamed Node.toJSON, gson based fromJSON, and the binary codec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SerializationBenchmark {
+
+    @Param({TreeShapes.WIDE, TreeShapes.DEEP, TreeShapes.REALISTIC})
+    public String shape;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    Explain.Node mTree;
+    String mJson;
+    File mBinaryFile;
+    File mWriteFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        mTree = TreeShapes.build(shape, size);
+        mJson = mTree.toJSON();
+
+        mBinaryFile = File.createTempFile("plaxien", ".plxb");
+        ExplainBinaryCodec.write(mTree, mBinaryFile);
+        mWriteFile = File.createTempFile("plaxien", ".plxb");
+    }
+
+    @TearDown
+    public void tearDown() {
+        mBinaryFile.delete();
+        mWriteFile.delete();
+    }
+
+    @Benchmark
+    public String toJSON() {
+        return mTree.toJSON();
+    }
+
+    @Benchmark
+    public Explain.Node fromJSON() {
+        return Explain.Node.fromJSON(mJson);
+    }
+
+    @Benchmark
+    public Explain.Node jsonRoundTrip() {
+        return Explain.Node.fromJSON(mTree.toJSON());
+    }
+
+    @Benchmark
+    public File writeBinary() throws IOException {
+        ExplainBinaryCodec.write(mTree, mWriteFile);
+        return mWriteFile;
+    }
+
+    @Benchmark
+    public Explain.Node readBinary() throws IOException {
+        return ExplainBinaryCodec.read(mBinaryFile);
+    }
+}
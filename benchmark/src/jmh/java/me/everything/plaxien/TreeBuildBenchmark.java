@@ -0,0 +1,44 @@
+package me.everything.plaxien;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building explain trees through the Node builder API
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TreeBuildBenchmark {
+
+    @Param({TreeShapes.WIDE, TreeShapes.DEEP, TreeShapes.REALISTIC})
+    public String shape;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Benchmark
+    public Explain.Node build() {
+        return TreeShapes.build(shape, size);
+    }
+
+    @Benchmark
+    public Explain.Node buildAndPack() {
+        Explain.Node root = TreeShapes.build(shape, size);
+        root.trimToSize(true);
+        return root;
+    }
+}
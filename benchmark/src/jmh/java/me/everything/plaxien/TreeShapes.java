@@ -0,0 +1,131 @@
+package me.everything.plaxien;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Synthetic explain trees for the benchmarks. Every shape is built with roughly the requested number of nodes
+ */
+class TreeShapes {
+
+    /** A single node with all the values under it */
+    static final String WIDE = "wide";
+    /** Chains of nested nodes, each ending with a value */
+    static final String DEEP = "deep";
+    /** A list of result records with repeated keys and a nested debug object, like our ranking explains */
+    static final String REALISTIC = "realistic";
+
+    static final int CHAIN_DEPTH = 100;
+    static final int RECORD_SIZE = 13;
+
+    static final String[] REASONS = {"installed", "popular", "contextual", "recent"};
+
+    static Explain.Node build(String shape, int size) {
+        Explain.Node root = new Explain.Node("root", true);
+
+        if (WIDE.equals(shape)) {
+            for (int i = 0; i < size; i++) {
+                root.addValue("value" + i, i);
+            }
+        } else if (DEEP.equals(shape)) {
+            for (int c = 0; c < size / CHAIN_DEPTH; c++) {
+                Explain.Node node = root.addChild("chain" + c);
+                for (int d = 0; d < CHAIN_DEPTH - 2; d++) {
+                    node = node.addChild("level" + d);
+                }
+                node.addValue("leaf", c);
+            }
+        } else if (REALISTIC.equals(shape)) {
+            Explain.Node results = root.addChild("results");
+            for (int i = 0; i < size / RECORD_SIZE; i++) {
+                Explain.Node record = results.addChild(String.format("[%d]", i + 1));
+                record.addValue("id", "com.app" + i)
+                        .addValue("score", (i % 50) / 10.0)
+                        .addValue("reason", REASONS[i % REASONS.length])
+                        .addValue("rank", i % 10);
+
+                Explain.Node debug = record.addChild("debug");
+                debug.addValue("boosted", i % 2 == 0).addValue("source", "server");
+                debug.addChild("features").addValue("f1", 1).addValue("f2", 2).addValue("f3", 3);
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown tree shape: " + shape);
+        }
+
+        return root;
+    }
+
+    /**
+     * Render a tree as third party JSON of the same shape, for the bridge benchmarks. Nodes whose children
+     * are titled like the bridge titles array elements are written as arrays, so the realistic shape is
+     * an array of result records, like a server response. The root is always an object, as the bridge requires
+     */
+    static String json(String shape, int size) {
+        StringWriter out = new StringWriter();
+        try {
+            JsonWriter writer = new JsonWriter(out);
+            writeObject(build(shape, size), writer);
+            writer.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toString();
+    }
+
+    static void writeObject(Explain.Node node, JsonWriter writer) throws IOException {
+        writer.beginObject();
+        for (Explain.BaseNode child : node.getChildren()) {
+            writer.name(child.title);
+            writeChild(child, writer);
+        }
+        writer.endObject();
+    }
+
+    static void writeArray(Explain.Node node, JsonWriter writer) throws IOException {
+        writer.beginArray();
+        for (Explain.BaseNode child : node.getChildren()) {
+            writeChild(child, writer);
+        }
+        writer.endArray();
+    }
+
+    static void writeChild(Explain.BaseNode child, JsonWriter writer) throws IOException {
+        if (child.type == Explain.BaseNode.NODE) {
+            Explain.Node node = (Explain.Node) child;
+            if (isArray(node)) {
+                writeArray(node, writer);
+            } else {
+                writeObject(node, writer);
+            }
+            return;
+        }
+
+        Object value = ((Explain.ValueNode) child).value;
+        if (value instanceof Number) {
+            writer.value((Number) value);
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else {
+            writer.value(String.valueOf(value));
+        }
+    }
+
+    /**
+     * Whether the children of a node are titled [1], [2] and so on
+     */
+    static boolean isArray(Explain.Node node) {
+        List<Explain.BaseNode> children = node.getChildren();
+        if (children.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < children.size(); i++) {
+            if (!String.format("[%d]", i + 1).equals(children.get(i).title)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,13 @@
+package android.content;
+
+/**
+ * JVM stand-in for the framework Intent, so that the explain model compiles outside of Android.
+ * It behaves like an empty intent.
+ */
+public class Intent {
+    public static final int URI_INTENT_SCHEME = 1;
+
+    public String toUri(int flags) {
+        return flags == URI_INTENT_SCHEME ? "intent:#Intent;end" : "#Intent;end";
+    }
+}
@@ -0,0 +1,18 @@
+package android.util;
+
+/**
+ * JVM stand-in for the framework Log, printing to stderr
+ */
+public class Log {
+
+    public static int e(String tag, String msg) {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        System.err.println(tag + ": " + msg);
+        tr.printStackTrace();
+        return 0;
+    }
+}
@@ -0,0 +1,56 @@
+package me.everything.plaxien;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+public class ExplainBinaryCodecTest extends TestCase {
+
+    File mFile;
+
+    @Override
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("explain", ".plxb");
+        mFile.deleteOnExit();
+    }
+
+    public void testRoundTrip() throws Exception {
+        Explain.Node node = new Explain.Node("title", true);
+        node.addChild("Child 1").addValue("Foo", "Bar").addValue("Foo", "Bar", "http://everything.me");
+        node.addChild("Child 2", true).addChild("Foo").addChild("gazi");
+        node.addValue("Empty", null);
+
+        ExplainBinaryCodec.write(node, mFile);
+        assertTrue(ExplainBinaryCodec.isBinary(mFile));
+
+        Explain.Node read = ExplainBinaryCodec.read(mFile);
+        assertEquals(read.toJSON(), node.toJSON());
+
+        // Repeated strings are read back from the string table as the same instance
+        Explain.Node child = (Explain.Node) read.children.get(0);
+        assertSame(child.children.get(0).title, child.children.get(1).title);
+        assertEquals(((Explain.ValueNode) child.children.get(1)).onClickUri, "http://everything.me");
+    }
+
+    public void testValuesAsStrings() throws Exception {
+        Explain.Node node = new Explain.Node("title", false);
+        node.addValue("Number", 3).addValue("Bool", true);
+
+        ExplainBinaryCodec.write(node, mFile);
+        Explain.Node read = ExplainBinaryCodec.read(mFile);
+
+        assertFalse(read.expanded);
+        assertEquals(read.children.get(0).toString(), "3");
+        assertEquals(read.children.get(1).toString(), "true");
+    }
+
+    public void testNotBinary() throws Exception {
+        Explain.Node node = new Explain.Node("title", true);
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(node.toJSON().getBytes("UTF-8"));
+        out.close();
+
+        assertFalse(ExplainBinaryCodec.isBinary(mFile));
+    }
+}
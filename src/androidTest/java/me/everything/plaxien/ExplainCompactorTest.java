@@ -0,0 +1,95 @@
+package me.everything.plaxien;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+import me.everything.plaxien.json.JSONExplainBridge;
+
+public class ExplainCompactorTest extends TestCase {
+
+    Explain.Node results(int count) {
+        Explain.Node root = new Explain.Node("Results", true);
+        for (int i = 0; i < count; i++) {
+            Explain.Node result = root.addChild("Result " + i);
+            result.addValue("score", i);
+            Explain.Node config = result.addChild("config");
+            config.addValue("model", "ranker-v3").addValue("boost", 1.5);
+            config.addChild("features").addValue("recency", true).addValue("locale", "en", "http://everything.me");
+        }
+        return root;
+    }
+
+    public void testCompact() throws Exception {
+        Explain.Node root = results(3);
+        String json = root.toJSON();
+
+        assertSame(ExplainCompactor.compact(root), root);
+        assertEquals(root.toJSON(), json);
+
+        Explain.Node first = (Explain.Node) root.getChildren().get(0);
+        Explain.Node second = (Explain.Node) root.getChildren().get(1);
+        assertNotSame(first, second);
+        assertSame(first.getChildren().get(1), second.getChildren().get(1));
+
+        try {
+            ((Explain.Node) first.getChildren().get(1)).addValue("Foo", "Bar");
+            fail("Shared subtrees can't be modified");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
+    public void testDifferentContent() throws Exception {
+        Explain.Node root = new Explain.Node("Root", true);
+        root.addChild("a").addValue("x", 1);
+        root.addChild("a").addValue("x", 2);
+        root.addChild("a", true).addValue("x", 1);
+        root.addChild("a").addValue("x", 1, "http://everything.me");
+
+        ExplainCompactor compactor = new ExplainCompactor();
+        assertEquals(compactor.compactTree(root), 0);
+
+        // Compacting another tree shares its subtrees with the first one
+        Explain.Node other = new Explain.Node("Other", true);
+        other.addChild("a").addValue("x", 2);
+        assertEquals(compactor.compactTree(other), 1);
+        assertSame(other.getChildren().get(0), root.getChildren().get(1));
+    }
+
+    public void testBridge() throws Exception {
+        String json = "{\"a\": {\"config\": {\"k\": 1}}, \"b\": {\"config\": {\"k\": 1}}}";
+        Explain.Node tree = new JSONExplainBridge().setShareSubtrees(true).parseJSON(json, "Root", true);
+
+        Explain.Node a = (Explain.Node) tree.getChildren().get(0);
+        Explain.Node b = (Explain.Node) tree.getChildren().get(1);
+        assertNotSame(a, b);
+        assertSame(a.getChildren().get(0), b.getChildren().get(0));
+        assertEquals(tree.toJSON(), new JSONExplainBridge().parseJSON(json, "Root", true).toJSON());
+    }
+
+    public void testBinaryRefs() throws Exception {
+        File file = File.createTempFile("explain", ".plxb");
+        file.deleteOnExit();
+
+        Explain.Node plain = results(50);
+        ExplainBinaryCodec.write(plain, file);
+        long plainLength = file.length();
+        // Values are read back as strings
+        String json = ExplainBinaryCodec.read(file).toJSON();
+
+        Explain.Node root = ExplainCompactor.compact(results(50));
+        ExplainBinaryCodec.write(root, file);
+        assertTrue(file.length() < plainLength);
+
+        Explain.Node read = ExplainBinaryCodec.read(file);
+        assertEquals(read.toJSON(), json);
+
+        // Shared nodes are read back shared, and frozen
+        Explain.Node first = (Explain.Node) read.getChildren().get(0);
+        Explain.Node second = (Explain.Node) read.getChildren().get(1);
+        assertSame(first.getChildren().get(1), second.getChildren().get(1));
+        assertTrue(((Explain.Node) first.getChildren().get(1)).frozen);
+        assertFalse(read.frozen);
+    }
+}
@@ -0,0 +1,87 @@
+package me.everything.plaxien;
+
+import junit.framework.TestCase;
+
+import me.everything.plaxien.json.JSONExplainBridge;
+
+import java.util.List;
+
+public class ExplainDiffTest extends TestCase {
+
+    Explain.BaseNode child(Explain.Node node, int i) {
+        return node.getChildren().get(i);
+    }
+
+    public void testDiff() {
+        Explain.Node before = new Explain.Node("root", true);
+        before.addChild("Same").addValue("Foo", "Bar");
+        before.addChild("Changed").addValue("Score", 1).addValue("Gone", "x");
+        before.addValue("Removed", 1);
+
+        Explain.Node after = new Explain.Node("root", true);
+        after.addChild("Same").addValue("Foo", "Bar");
+        after.addChild("Changed").addValue("Score", 2).addValue("New", "y");
+        after.addChild("Added").addValue("Foo", "Bar");
+
+        ExplainDiff.DiffNode diff = ExplainDiff.diff(before, after);
+        assertEquals(diff.getDiffState(), ExplainDiff.CHANGED);
+        assertTrue(diff.expanded);
+        assertEquals(diff.size(), 4);
+        // Building the diff tree neither changes nor invalidates the trees it was made of
+        assertTrue(child(before, 0).isHashCached());
+        assertTrue(child(after, 0).isHashCached());
+
+        // Unchanged subtrees are shared with the new tree
+        assertSame(child(diff, 0), child(after, 0));
+        assertEquals(ExplainDiff.stateOf(child(diff, 0)), ExplainDiff.UNCHANGED);
+        assertFalse(((Explain.Node) child(diff, 0)).expanded);
+
+        Explain.Node changed = (Explain.Node) child(diff, 1);
+        assertEquals(ExplainDiff.stateOf(changed), ExplainDiff.CHANGED);
+        ExplainDiff.DiffValueNode score = (ExplainDiff.DiffValueNode) child(changed, 0);
+        assertEquals(score.getDiffState(), ExplainDiff.CHANGED);
+        assertEquals(score.getOldValue(), 1);
+        assertEquals(score.getValue(), 2);
+        // Removed children stay in place
+        assertEquals(child(changed, 1).title, "Gone");
+        assertEquals(ExplainDiff.stateOf(child(changed, 1)), ExplainDiff.REMOVED);
+        assertEquals(ExplainDiff.stateOf(child(changed, 2)), ExplainDiff.ADDED);
+
+        assertEquals(child(diff, 2).title, "Removed");
+        assertEquals(ExplainDiff.stateOf(child(diff, 2)), ExplainDiff.REMOVED);
+
+        Explain.Node added = (Explain.Node) child(diff, 3);
+        assertEquals(ExplainDiff.stateOf(added), ExplainDiff.ADDED);
+        assertEquals(ExplainDiff.stateOf(child(added, 0)), ExplainDiff.ADDED);
+    }
+
+    public void testArrays() {
+        JSONExplainBridge bridge = new JSONExplainBridge();
+        Explain.Node before = bridge.parseJSON("{\"results\": [{\"id\": 1}, {\"id\": 2}], \"tags\": [\"a\", \"b\"]}", "root", true);
+        Explain.Node after = bridge.parseJSON("{\"results\": [{\"id\": 1}, {\"id\": 3}, {\"id\": 4}], \"tags\": [\"a\", \"c\"]}", "root", true);
+
+        ExplainDiff.DiffNode diff = ExplainDiff.diff(before, after);
+
+        // Array elements are matched by position
+        List<Explain.BaseNode> results = ((Explain.Node) child(diff, 0)).getChildren();
+        assertEquals(results.size(), 3);
+        assertEquals(ExplainDiff.stateOf(results.get(0)), ExplainDiff.UNCHANGED);
+        assertEquals(ExplainDiff.stateOf(results.get(1)), ExplainDiff.CHANGED);
+        assertEquals(ExplainDiff.stateOf(results.get(2)), ExplainDiff.ADDED);
+
+        List<Explain.BaseNode> tags = ((Explain.Node) child(diff, 1)).getChildren();
+        assertEquals(tags.size(), 2);
+        assertEquals(ExplainDiff.stateOf(tags.get(0)), ExplainDiff.UNCHANGED);
+        assertEquals(ExplainDiff.stateOf(tags.get(1)), ExplainDiff.CHANGED);
+        assertEquals(tags.get(1).title, "\"b\"" + ExplainDiff.ARROW + "\"c\"");
+    }
+
+    public void testEqualTrees() {
+        Explain.Node node = new Explain.Node("root", true);
+        node.addChild("Child").addValue("Foo", "Bar");
+
+        ExplainDiff.DiffNode diff = ExplainDiff.diff(node, node);
+        assertEquals(diff.getDiffState(), ExplainDiff.UNCHANGED);
+        assertEquals(diff.toJSON().length() > 0, true);
+    }
+}
@@ -0,0 +1,104 @@
+package me.everything.plaxien;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+public class ExplainDumpReaderTest extends TestCase {
+
+    File mFile;
+    Explain.Node mNode;
+
+    @Override
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("explain", ".dump");
+        mFile.deleteOnExit();
+
+        mNode = new Explain.Node("title", true);
+        mNode.addChild("Child 1").addValue("Foo", "Bar");
+        mNode.addChild("Child 2").addChild("Foo").addChild("gazi");
+    }
+
+    private void writeFile(String data) throws Exception {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(data.getBytes("UTF-8"));
+        out.close();
+    }
+
+    public void testReadInternalJson() throws Exception {
+        writeFile(mNode.toJSON());
+
+        Explain.Node node = ExplainDumpReader.read(mFile, "Ignored", true);
+        assertEquals(node.toJSON(), mNode.toJSON());
+    }
+
+    public void testReadBinary() throws Exception {
+        ExplainBinaryCodec.write(mNode, mFile);
+
+        Explain.Node node = ExplainDumpReader.read(mFile, "Ignored", true);
+        assertEquals(node.toJSON(), mNode.toJSON());
+    }
+
+    public void testReadThirdPartyJson() throws Exception {
+        writeFile("{\"Group 1\": {\"Key\": \"value\"}, \"Key2\": 3}");
+
+        Explain.Node node = ExplainDumpReader.read(mFile, "Foo", false);
+        assertEquals(node.title, "Foo");
+        assertEquals(node.size(), 2);
+        assertEquals(node.getChildren().get(0).title, "Group 1");
+    }
+
+    public void testReadCompressedThirdPartyJson() throws Exception {
+        // Recognized by its content, whatever the file is named
+        GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(mFile));
+        out.write("{\"Group 1\": {\"Key\": \"value\"}, \"Key2\": 3}".getBytes("UTF-8"));
+        out.close();
+
+        Explain.Node node = ExplainDumpReader.read(mFile, "Foo", false);
+        assertEquals(node.size(), 2);
+        assertEquals(node.getChildren().get(0).title, "Group 1");
+    }
+
+    public void testReadCompressedDumps() throws Exception {
+        File file = new File(mFile.getPath() + ExplainDumpCompression.EXTENSION);
+        file.deleteOnExit();
+
+        for (int format : new int[]{ExplainDumpWriter.FORMAT_BINARY, ExplainDumpWriter.FORMAT_JSON}) {
+            ExplainDumpWriter.write(mNode, file, format);
+            assertTrue(ExplainDumpCompression.isCompressed(ExplainDumpReader.map(file)));
+
+            Explain.Node node = ExplainDumpReader.read(file, "Ignored", true);
+            assertEquals(node.toJSON(), mNode.toJSON());
+        }
+    }
+
+    public void testReadLargeCompressedBinary() throws Exception {
+        File file = new File(mFile.getPath() + ExplainDumpCompression.EXTENSION);
+        file.deleteOnExit();
+
+        // Larger than the buffer the decompressed dump is read through, and so is one of its values
+        char[] chars = new char[ExplainDumpCompression.BUFFER_SIZE * 2];
+        Arrays.fill(chars, 'x');
+        Explain.Node root = new Explain.Node("Large", true);
+        root.addValue("Long", new String(chars));
+        for (int i = 0; i < 10000; i++) {
+            root.addChild("Child " + i).addValue("Value", "Value " + i);
+        }
+
+        ExplainDumpWriter.write(root, file, ExplainDumpWriter.FORMAT_BINARY);
+        assertTrue(ExplainDumpCompression.shouldCompress(file));
+        assertTrue(ExplainDumpCompression.isCompressed(file));
+        assertFalse(ExplainDumpCompression.shouldCompress(mFile));
+
+        Explain.Node node = ExplainDumpReader.read(file, "Ignored", true);
+        assertEquals(node.toJSON(), root.toJSON());
+    }
+
+    public void testReadMissingFile() throws Exception {
+        Explain.Node node = ExplainDumpReader.read(null, "Foo", false);
+        assertEquals(node.size(), 0);
+    }
+}
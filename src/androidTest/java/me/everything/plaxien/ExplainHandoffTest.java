@@ -0,0 +1,26 @@
+package me.everything.plaxien;
+
+import junit.framework.TestCase;
+
+public class ExplainHandoffTest extends TestCase {
+
+    public void testTake() throws Exception {
+        Explain.Node root = new Explain.Node("Root", true);
+        String token = ExplainHandoff.put(root);
+
+        assertSame(ExplainHandoff.take(token), root);
+        // Still found while the taker holds it, e.g. by an activity that is re-created
+        assertSame(ExplainHandoff.take(token), root);
+        assertNull(ExplainHandoff.take("no such token"));
+    }
+
+    public void testPinned() throws Exception {
+        String token = ExplainHandoff.put(new Explain.Node("Unclaimed", true));
+        for (int i = 0; i < ExplainHandoff.MAX_PINNED; i++) {
+            ExplainHandoff.put(new Explain.Node("Root " + i, true));
+        }
+
+        // Too many launches were never claimed, so the oldest tree is no longer pinned
+        assertFalse(ExplainHandoff.sPinned.containsKey(token));
+    }
+}
@@ -0,0 +1,40 @@
+package me.everything.plaxien;
+
+import com.google.gson.Gson;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+
+public class ExplainJsonWriterTest extends TestCase {
+
+    Explain.Node mNode;
+
+    @Override
+    public void setUp() {
+        mNode = new Explain.Node("title", true);
+        mNode.addChild("Child 1").addValue("Foo", "Bar").addValue("Html", "<a href='x'>&</a>", "http://everything.me");
+        mNode.addChild("Child 2", true).addChild("Foo").addChild("gazi");
+        mNode.addValue("Number", 3).addValue("Double", 0.5).addValue("Bool", false).addValue("Empty", null);
+    }
+
+    public void testSameAsGson() {
+        assertEquals(mNode.toJSON(), new Gson().toJson(mNode));
+    }
+
+    public void testWriteFile() throws Exception {
+        File file = File.createTempFile("explain", ".json");
+        file.deleteOnExit();
+
+        ExplainJsonWriter.write(mNode, file);
+
+        Explain.Node read = Explain.Node.fromJSON(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        assertNotNull(read);
+        assertEquals(read.size(), mNode.size());
+        assertEquals(((Explain.Node) read.children.get(1)).expanded, true);
+        assertEquals(((Explain.ValueNode) ((Explain.Node) read.children.get(0)).children.get(1)).onClickUri,
+                "http://everything.me");
+    }
+}
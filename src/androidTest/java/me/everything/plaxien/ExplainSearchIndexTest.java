@@ -0,0 +1,106 @@
+package me.everything.plaxien;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class ExplainSearchIndexTest extends TestCase {
+
+    ExplainSearchIndex mIndex;
+
+    @Override
+    public void setUp() {
+        Explain.Node root = new Explain.Node("root", true);
+        Explain.Node results = root.addChild("Results");
+        results.addChild("[1]").addValue("id", "com.whatsapp").addValue("score", 0.5);
+        results.addChild("[2]").addValue("id", "com.facebook.katana").addValue("score", 0.25);
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            longValue.append("padding ");
+        }
+        root.addChild("Debug").addValue("trace", longValue + "needle");
+        root.trimToSize(true);
+
+        mIndex = ExplainSearchIndex.build(root);
+    }
+
+    String titles(int[] ids) {
+        String[] titles = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            titles[i] = mIndex.getNode(ids[i]).title;
+        }
+        return Arrays.toString(titles);
+    }
+
+    public void testBuild() {
+        assertEquals(mIndex.size(), 10);
+        assertEquals(mIndex.getNode(0).title, "root");
+        assertEquals(mIndex.getNode(3).title, "id");
+        assertEquals(Arrays.toString(mIndex.getPath(3)), "[0, 0, 0]");
+        assertEquals(mIndex.getDepth(3), 3);
+    }
+
+    public void testEnds() {
+        // Each subtree ends where the next sibling of its root begins
+        assertEquals(mIndex.getEnd(0), 10);
+        assertEquals(mIndex.getEnd(1), 8);
+        assertEquals(mIndex.getEnd(2), 5);
+        assertEquals(mIndex.getEnd(3), 4);
+        assertEquals(mIndex.getEnd(5), 8);
+        assertEquals(mIndex.getEnd(8), 10);
+    }
+
+    public void testSearch() {
+        // Titles and values, ignoring case
+        assertEquals(titles(mIndex.search("RESULT")), "[Results]");
+        assertEquals(titles(mIndex.search("whatsapp")), "[id]");
+        assertEquals(titles(mIndex.search("score")), "[score, score]");
+        assertEquals(titles(mIndex.search("0.25")), "[score]");
+        assertEquals(titles(mIndex.search("nothing")), "[]");
+
+        // Short queries are scanned
+        assertEquals(titles(mIndex.search("[2")), "[[2]]");
+
+        // Long values match beyond the indexed prefix
+        assertEquals(titles(mIndex.search("needle")), "[trace]");
+    }
+
+    public void testNarrowing() {
+        assertEquals(titles(mIndex.search("com")), "[id, id]");
+        assertEquals(titles(mIndex.search("com.")), "[id, id]");
+        assertEquals(titles(mIndex.search("com.f")), "[id]");
+        // Widening the query searches the whole index again
+        assertEquals(titles(mIndex.search("co")), "[id, score, id, score]");
+        assertEquals(mIndex.search("").length, 0);
+    }
+
+    public void testLazyValuesAreNotComputed() {
+        Explain.Node root = new Explain.Node("root", true);
+        root.addLazyValue("lazy", new Explain.ValueSupplier() {
+            @Override
+            public Object get() {
+                fail("Searching must not compute lazy values");
+                return null;
+            }
+        });
+        ExplainSearchIndex index = ExplainSearchIndex.build(root);
+        assertEquals(index.search("lazy").length, 1);
+    }
+
+    public void testLazyValuesAreFoundOnceComputed() {
+        Explain.Node root = new Explain.Node("root", true);
+        root.addLazyValue("lazy", new Explain.ValueSupplier() {
+            @Override
+            public Object get() {
+                return "computed";
+            }
+        });
+        ExplainSearchIndex index = ExplainSearchIndex.build(root);
+        assertEquals(index.search("computed").length, 0);
+
+        // Short and long queries alike find the value once it's computed
+        ((Explain.LazyValueNode) root.getChildren().get(0)).getValue();
+        assertEquals(index.search("co").length, 1);
+        assertEquals(index.search("puted").length, 1);
+    }
+}
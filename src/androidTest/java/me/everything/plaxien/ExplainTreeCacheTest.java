@@ -0,0 +1,86 @@
+package me.everything.plaxien;
+
+import android.content.ComponentCallbacks2;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+public class ExplainTreeCacheTest extends TestCase {
+
+    File mFile;
+    File mOtherFile;
+
+    @Override
+    public void setUp() throws Exception {
+        // Start empty
+        ExplainTreeCache.setBudget(0);
+        ExplainTreeCache.setBudget(ExplainTreeCache.DEFAULT_BUDGET);
+
+        mFile = File.createTempFile("explain", ".json");
+        mFile.deleteOnExit();
+        mOtherFile = File.createTempFile("explain", ".json");
+        mOtherFile.deleteOnExit();
+        write(mFile, "{}");
+        write(mOtherFile, "{}");
+    }
+
+    static void write(File file, String s) throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(s.getBytes("UTF-8"));
+        out.close();
+    }
+
+    Explain.Node tree(int size) {
+        Explain.Node root = new Explain.Node("Root", true);
+        for (int i = 0; i < size; i++) {
+            root.addValue("Key " + i, "Value " + i);
+        }
+        return root;
+    }
+
+    public void testGet() throws Exception {
+        Explain.Node root = tree(10);
+        ExplainSearchIndex index = ExplainSearchIndex.build(root);
+        ExplainTreeCache.put(new ExplainTreeCache.Key(mFile), root, index);
+
+        ExplainTreeCache.Entry entry = ExplainTreeCache.get(new ExplainTreeCache.Key(mFile));
+        assertSame(entry.root, root);
+        assertSame(entry.index, index);
+        assertNull(ExplainTreeCache.get(new ExplainTreeCache.Key(mOtherFile)));
+
+        // A rewritten dump is parsed again
+        write(mFile, "{\"a\": 1}");
+        assertNull(ExplainTreeCache.get(new ExplainTreeCache.Key(mFile)));
+    }
+
+    public void testEviction() throws Exception {
+        Explain.Node first = tree(100);
+        Explain.Node second = tree(100);
+        ExplainSearchIndex index = ExplainSearchIndex.build(first);
+        ExplainTreeCache.put(new ExplainTreeCache.Key(mFile), first, index);
+        long weight = ExplainTreeCache.weight();
+        // The trigram postings are counted as well
+        assertTrue(index.estimateGramBytes() > 0);
+        assertTrue(weight > 100 * ExplainTreeCache.ESTIMATED_NODE_BYTES + index.estimateGramBytes());
+
+        // Only one tree fits, so the least recently used one goes
+        ExplainTreeCache.setBudget(weight + weight / 2);
+        ExplainTreeCache.put(new ExplainTreeCache.Key(mOtherFile), second, ExplainSearchIndex.build(second));
+        assertNull(ExplainTreeCache.get(new ExplainTreeCache.Key(mFile)));
+        assertSame(ExplainTreeCache.get(new ExplainTreeCache.Key(mOtherFile)).root, second);
+
+        ExplainTreeCache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(ExplainTreeCache.weight(), 0);
+    }
+
+    public void testInvalidate() throws Exception {
+        Explain.Node root = tree(10);
+        ExplainTreeCache.put(new ExplainTreeCache.Key(mFile), root, ExplainSearchIndex.build(root));
+
+        ExplainTreeCache.invalidate(mFile);
+        assertNull(ExplainTreeCache.get(new ExplainTreeCache.Key(mFile)));
+        assertEquals(ExplainTreeCache.weight(), 0);
+    }
+}
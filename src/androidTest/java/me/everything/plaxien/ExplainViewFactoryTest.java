@@ -1,10 +1,18 @@
 package me.everything.plaxien;
 
+import android.content.Context;
 import android.test.InstrumentationTestCase;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.TextView;
 
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
 
 public class ExplainViewFactoryTest extends InstrumentationTestCase {
 
@@ -55,6 +63,68 @@ public class ExplainViewFactoryTest extends InstrumentationTestCase {
         assertEquals(ll.getChildCount(),1);
     }
 
+    public void testGetAsyncSectionView() throws Exception {
+        ExecutorExplainer explainer = new ExecutorExplainer(new MockExplainer());
+        ViewGroup container = (ViewGroup) mFactory.getSectionView(explainer, 1000);
+        assertNotNull(container);
+
+        // Wait for the explain to be swapped in on the main thread
+        for (int i = 0; i < 50 && container.findViewById(R.id.section_title) == null; i++) {
+            Thread.sleep(20);
+            getInstrumentation().waitForIdleSync();
+        }
+        assertEquals(container.getChildCount(), 1);
+        TextView tv = (TextView) container.findViewById(R.id.section_title);
+        assertEquals(tv.getText(), mNode.title);
+    }
+
+    public void testAsyncExplainTimeout() throws Exception {
+        AsyncExplainer explainer = new ExecutorExplainer(new Explainer() {
+            @Override
+            public Explain.Node getExplain(Object... args) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    // Cancelled by the deadline
+                }
+                return mNode;
+            }
+        });
+        ViewGroup container = (ViewGroup) mFactory.getExplainView(explainer, 10);
+
+        TextView message = (TextView) container.findViewById(R.id.placeholder_message);
+        for (int i = 0; i < 50 && message.getVisibility() != View.VISIBLE; i++) {
+            Thread.sleep(20);
+            getInstrumentation().waitForIdleSync();
+        }
+        assertEquals(message.getVisibility(), View.VISIBLE);
+        assertNull(container.findViewById(R.id.node_title));
+    }
+
+    public void testAsyncExplainCancelled() throws Exception {
+        AsyncExplainer explainer = new AsyncExplainer() {
+            @Override
+            public Future<Explain.Node> getExplainAsync(Callback callback, Object... args) {
+                FutureTask<Explain.Node> future = new FutureTask<Explain.Node>(new Callable<Explain.Node>() {
+                    @Override
+                    public Explain.Node call() {
+                        return mNode;
+                    }
+                });
+                future.cancel(true);
+                callback.onDone(future);
+                return future;
+            }
+        };
+        ViewGroup container = (ViewGroup) mFactory.getExplainView(explainer, 1000);
+
+        // The cancelled explain shows a message, instead of the progress forever
+        TextView message = (TextView) container.findViewById(R.id.placeholder_message);
+        getInstrumentation().waitForIdleSync();
+        assertEquals(message.getVisibility(), View.VISIBLE);
+        assertEquals(container.findViewById(R.id.placeholder_progress).getVisibility(), View.GONE);
+    }
+
     public void testGetExplainView() throws Exception {
         View sectionView = mFactory.getExplainView(new MockExplainer());
         assertNotNull(sectionView);
@@ -80,6 +150,225 @@ public class ExplainViewFactoryTest extends InstrumentationTestCase {
         assertEquals(ll.getChildCount(), mNode.size());
     }
 
+    public void testRecycling() throws Exception {
+        // Release children as soon as a node is collapsed
+        mFactory.setViewBudget(0);
+
+        View nodeView = mFactory.getNodeView(mNode);
+        ExplainViewFactory.NodeHolder holder = (ExplainViewFactory.NodeHolder) nodeView.getTag();
+        assertEquals(holder.itemsView.getChildCount(), mNode.size());
+
+        holder.toggle();
+        assertEquals(holder.itemsView.getChildCount(), 0);
+        assertEquals(mFactory.mPool.size(R.layout.explain_value), 1);
+        assertEquals(mFactory.mPool.size(R.layout.explain_node), 1);
+
+        // Re-opening rebinds the pooled views
+        holder.toggle();
+        assertEquals(holder.itemsView.getChildCount(), mNode.size());
+        assertEquals(mFactory.mPool.size(R.layout.explain_value), 0);
+        assertEquals(mFactory.mPool.size(R.layout.explain_node), 0);
+
+        TextView tv = (TextView) holder.itemsView.getChildAt(1).findViewById(R.id.node_title);
+        assertEquals(tv.getText(), "Child 1");
+
+        mFactory.recycle(nodeView);
+        assertEquals(mFactory.mLiveViews, 0);
+        assertEquals(mFactory.mPool.size(R.layout.explain_node), 2);
+    }
+
+    public void testDrawnValueRows() throws Exception {
+        mFactory.setDrawValueRows(true);
+        mFactory.setViewBudget(0);
+
+        View nodeView = mFactory.getNodeView(mNode);
+        ExplainViewFactory.NodeHolder holder = (ExplainViewFactory.NodeHolder) nodeView.getTag();
+        View valueView = holder.itemsView.getChildAt(0);
+        assertEquals(valueView.getClass(), ValueRowView.class);
+        assertEquals(((ValueRowView) valueView).mTitle, "Foo");
+        assertEquals(((ValueRowView) valueView).mValue, "Bar");
+
+        holder.toggle();
+        assertEquals(mFactory.mPool.size(ExplainViewFactory.DRAWN_VALUE_ROW), 1);
+    }
+
+    public void testGetTreeView() throws Exception {
+        ListView treeView = mFactory.getTreeView(mNode);
+        assertNotNull(treeView);
+
+        ExplainTreeAdapter adapter = (ExplainTreeAdapter) treeView.getAdapter();
+        // The expanded root and its two direct children
+        assertEquals(adapter.getCount(), 1 + mNode.size());
+        assertEquals(adapter.getItem(2).title, "Child 1");
+
+        adapter.toggle(2);
+        assertEquals(adapter.getCount(), 5);
+        assertEquals(adapter.getItem(3).title, "Bar");
+
+        adapter.toggle(2);
+        assertEquals(adapter.getCount(), 3);
+
+        adapter.toggle(0);
+        assertEquals(adapter.getCount(), 1);
+    }
+
+    public void testPaging() throws Exception {
+        Explain.Node wide = new Explain.Node("Wide", null, true);
+        for (int i = 0; i < 25; i++) {
+            wide.addValue("Value " + i, i);
+        }
+        mFactory.setPageSize(10);
+
+        View nodeView = mFactory.getNodeView(wide);
+        ExplainViewFactory.NodeHolder holder = (ExplainViewFactory.NodeHolder) nodeView.getTag();
+        // A page of children and the "show next" row
+        assertEquals(holder.itemsView.getChildCount(), 11);
+        assertEquals(holder.numChildrenView.getText().toString(), "10 of 25");
+
+        holder.showNext();
+        assertEquals(holder.itemsView.getChildCount(), 21);
+
+        // Jumping to a child renders only its page, and the "show previous" row
+        View child = holder.showChild(22);
+        assertEquals(holder.itemsView.getChildCount(), 6);
+        assertEquals(holder.numChildrenView.getText().toString(), "5 of 25");
+        TextView tv = (TextView) child.findViewById(R.id.vname);
+        assertEquals(tv.getText(), "Value 22");
+
+        holder.showPrevious();
+        assertEquals(holder.itemsView.getChildCount(), 16);
+        assertEquals(holder.numChildrenView.getText().toString(), "15 of 25");
+    }
+
+    public void testShowUnrenderedChild() throws Exception {
+        Explain.Node node = new Explain.Node("Test", null, true);
+        node.addValue("First", 1);
+        // A node of an unknown type gets no view
+        node.children.add(new Explain.BaseNode(-1, "Unknown"));
+        node.addValue("Last", 2);
+
+        View nodeView = mFactory.getNodeView(node);
+        ExplainViewFactory.NodeHolder holder = (ExplainViewFactory.NodeHolder) nodeView.getTag();
+        assertEquals(holder.itemsView.getChildCount(), 2);
+
+        assertNull(holder.showChild(1));
+        TextView tv = (TextView) holder.showChild(2).findViewById(R.id.vname);
+        assertEquals(tv.getText(), "Last");
+    }
+
+    public void testTreePaging() throws Exception {
+        Explain.Node wide = new Explain.Node("Wide", null, true);
+        for (int i = 0; i < 25; i++) {
+            wide.addValue("Value " + i, i);
+        }
+        mFactory.setPageSize(10);
+
+        ExplainTreeAdapter adapter = (ExplainTreeAdapter) mFactory.getTreeView(wide).getAdapter();
+        // The root, a page of children and the "show next" row
+        assertEquals(adapter.getCount(), 12);
+        assertEquals(adapter.getItemViewType(11), ExplainTreeAdapter.ROW_TYPE_MORE);
+
+        adapter.showMore(11);
+        assertEquals(adapter.getCount(), 22);
+
+        int position = adapter.showChild(0, 24);
+        assertEquals(adapter.getItem(position).title, "Value 24");
+        // The root, the "show previous" row and the last page
+        assertEquals(adapter.getCount(), 7);
+
+        adapter.showMore(1);
+        assertEquals(adapter.getCount(), 17);
+        assertEquals(adapter.getItem(2).title, "Value 10");
+    }
+
+    public void testTreeFilter() throws Exception {
+        ExplainTreeAdapter adapter = (ExplainTreeAdapter) mFactory.getTreeView(mNode).getAdapter();
+        ExplainSearchIndex index = ExplainSearchIndex.build(mNode);
+
+        // Only the match and its ancestors are shown
+        adapter.setFilter(index, index.search("child2"));
+        assertTrue(adapter.isFiltered());
+        assertEquals(adapter.getCount(), 3);
+        assertEquals(adapter.getItem(1).title, "Child 1");
+        assertEquals(adapter.getItem(2).title, "Child2");
+
+        adapter.clearFilter();
+        assertFalse(adapter.isFiltered());
+        assertEquals(adapter.getCount(), 1 + mNode.size());
+    }
+
+    public void testExpansionState() throws Exception {
+        ExplainTreeAdapter adapter = (ExplainTreeAdapter) mFactory.getTreeView(mNode).getAdapter();
+        ExplainSearchIndex index = ExplainSearchIndex.build(mNode);
+        adapter.toggle(2);
+        adapter.toggle(4);
+        long[] state = adapter.getExpansionState(index);
+
+        // A fresh adapter opens the same nodes
+        ExplainTreeAdapter restored = (ExplainTreeAdapter) mFactory.getTreeView(mNode).getAdapter();
+        restored.setExpansionState(index, state);
+        assertEquals(restored.getCount(), adapter.getCount());
+        assertEquals(restored.getItem(4).title, "Child2");
+        assertTrue(restored.mRows.get(4).expanded);
+
+        // Collapsed nodes stay collapsed, even the ones that are expanded by default
+        restored.toggle(0);
+        restored.setExpansionState(index, restored.getExpansionState(index));
+        assertEquals(restored.getCount(), 1);
+    }
+
+    public void testExpansionStateOfWideNode() throws Exception {
+        Explain.Node wide = new Explain.Node("Wide", null, true);
+        for (int i = 0; i < 25; i++) {
+            wide.addChild("Child " + i).addValue("Value " + i, i);
+        }
+        mFactory.setPageSize(10);
+        ExplainSearchIndex index = ExplainSearchIndex.build(wide);
+
+        // Open a child on the first page and one on the last
+        ExplainTreeAdapter adapter = (ExplainTreeAdapter) mFactory.getTreeView(wide).getAdapter();
+        adapter.toggle(3);
+        adapter.showMore(12);
+        adapter.showMore(22);
+        assertEquals(adapter.getItem(24).title, "Child 22");
+        adapter.toggle(24);
+        long[] state = adapter.getExpansionState(index);
+
+        // Only the first page is created, the last one is restored once it's shown
+        ExplainTreeAdapter restored = (ExplainTreeAdapter) mFactory.getTreeView(wide).getAdapter();
+        restored.setExpansionState(index, state);
+        assertEquals(restored.getCount(), 13);
+        assertTrue(Arrays.equals(restored.getExpansionState(index), state));
+        restored.showMore(12);
+        restored.showMore(22);
+        assertEquals(restored.getCount(), adapter.getCount());
+        assertTrue(restored.mRows.get(24).expanded);
+
+        // A node opens at the page of its first expanded child
+        restored.toggle(3);
+        restored.setExpansionState(index, restored.getExpansionState(index));
+        // The root, the "show previous" row, the last page and the value of the open child
+        assertEquals(restored.getCount(), 8);
+        assertEquals(restored.getItemViewType(1), ExplainTreeAdapter.ROW_TYPE_MORE);
+        assertEquals(restored.getItem(4).title, "Child 22");
+    }
+
+    public void testStyleCache() throws Exception {
+        ExplainViewFactory.ExplainViewStyle style = new ExplainViewFactory.Builder().build();
+        Context context = getInstrumentation().getContext();
+        TextView first = new TextView(context);
+        TextView second = new TextView(context);
+        style.applyValueStyle(first);
+        style.applyValueStyle(second);
+        assertEquals(style.mResolved.size(), 1);
+
+        // Same text appearance as resolving the style for each view
+        TextView expected = new TextView(context);
+        expected.setTextAppearance(context, R.style.PlaxienValue);
+        assertEquals(second.getTextSize(), expected.getTextSize());
+        assertEquals(second.getCurrentTextColor(), expected.getCurrentTextColor());
+    }
+
     public void testJsonSerialization() {
         Explain.Node node = new Explain.Node("title", true);
         node.addChild("Child 1").addValue("Foo", "Bar");
@@ -1,9 +1,15 @@
 package me.everything.plaxien;
 
+import com.google.gson.JsonParser;
+
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
 import me.everything.plaxien.Explain;
 import me.everything.plaxien.json.JSONExplainBridge;
+import me.everything.plaxien.json.ParseLimits;
 
 public class JSONExplainBridgeTest extends TestCase {
 
@@ -37,5 +43,201 @@ public class JSONExplainBridgeTest extends TestCase {
 
 
     }
-}
 
+    public void testParseStream() throws Exception {
+
+        String rawJSON = "{\"Group 1\": {\"Entry 1\": {\"Key\": \"va\\\"lue\", \"Key2\": 3.50 ,\"Key3\": [1,[true],{\"a\": false},\"foo\"],\"Key4\": null}}, \"Empty\": {}}";
+
+        JSONExplainBridge bridge = new JSONExplainBridge();
+
+        Explain.Node fromDom = bridge.parseJSON(new JsonParser().parse(rawJSON), "Foo", true);
+        Explain.Node fromStream = bridge.parseJSON(new ByteArrayInputStream(rawJSON.getBytes("UTF-8")), "Foo", true);
+
+        assertEquals(fromStream.toJSON(), fromDom.toJSON());
+        assertEquals(bridge.parseJSON(rawJSON, "Foo", true).toJSON(), fromDom.toJSON());
+    }
+
+    public void testParseLazy() throws Exception {
+
+        String rawJSON = "{\"Group 1\": {\"Entry 1\": {\"K\\u00e9y\": \"va\\\"lue\", \"Key2\": -3.5e2 ,\"Key3\": [1,[true],{\"a\": false},\"f\u00f6o\"],\"Key4\": null}}, \"Empty\": {}, \"List\" : [ ] }";
+
+        JSONExplainBridge bridge = new JSONExplainBridge();
+
+        Explain.Node lazy = bridge.parseLazy(ByteBuffer.wrap(rawJSON.getBytes("UTF-8")), "Foo", true);
+
+        // The size is known before anything is parsed
+        assertEquals(lazy.size(), 3);
+        assertEquals(lazy.children.size(), 0);
+        assertFalse(lazy.isLoaded());
+
+        Explain.Node group = (Explain.Node) lazy.getChildren().get(0);
+        assertTrue(lazy.isLoaded());
+        assertEquals(group.title, "Group 1");
+        assertEquals(group.size(), 1);
+        assertEquals(group.children.size(), 0);
+
+        Explain.Node stream = bridge.parseJSON(rawJSON, "Foo", true);
+        assertEquals(lazy.toJSON(), stream.toJSON());
+    }
+
+    public void testParseLazyLenient() throws Exception {
+
+        JSONExplainBridge bridge = new JSONExplainBridge();
+
+        // Not strict JSON, so the whole document is parsed up front, leniently
+        String rawJSON = "{Group: {'Key': 'value', /* comment */ \"List\": [1, tru]}}";
+        Explain.Node lazy = bridge.parseLazy(ByteBuffer.wrap(rawJSON.getBytes("UTF-8")), "Foo", true);
+        assertTrue(lazy.isLoaded());
+        assertEquals(lazy.children.size(), 1);
+        assertEquals(lazy.toJSON(), bridge.parseJSON(rawJSON, "Foo", true).toJSON());
+
+        // Invalid literals are not taken as they are, but go through the lenient parser as well
+        for (String invalid : new String[]{"{\"a\": 1.2.3}", "{\"a\": 01}", "{\"a\": tru}"}) {
+            lazy = bridge.parseLazy(ByteBuffer.wrap(invalid.getBytes("UTF-8")), "Foo", true);
+            assertEquals(lazy.children.size(), 1);
+            assertEquals(lazy.toJSON(), bridge.parseJSON(invalid, "Foo", true).toJSON());
+        }
+
+        try {
+            bridge.parseLazy(ByteBuffer.wrap("{\"a\": 1} {}".getBytes("UTF-8")), "Foo", true);
+            fail("Parsed data after the root object");
+        } catch (RuntimeException e) {
+            // Expected
+        }
+    }
+
+    public void testSharedStrings() throws Exception {
+
+        String rawJSON = "{\"results\": [{\"id\": \"a\", \"score\": 1}, {\"id\": \"b\", \"score\": 1}]}";
+
+        JSONExplainBridge bridge = new JSONExplainBridge();
+
+        Explain.Node results = (Explain.Node) bridge.parseJSON(rawJSON, "Foo", true).children.get(0);
+        Explain.Node first = (Explain.Node) results.children.get(0);
+        Explain.Node second = (Explain.Node) results.children.get(1);
+
+        assertSame(first.children.get(0).title, second.children.get(0).title);
+        assertSame(((Explain.ValueNode) first.children.get(1)).value, ((Explain.ValueNode) second.children.get(1)).value);
+
+        Explain.Node lazy = bridge.parseLazy(ByteBuffer.wrap(rawJSON.getBytes("UTF-8")), "Foo", true);
+        results = (Explain.Node) lazy.getChildren().get(0);
+        first = (Explain.Node) results.getChildren().get(0);
+        second = (Explain.Node) results.getChildren().get(1);
+
+        assertEquals(first.title, "[1]");
+        assertSame(first.getChildren().get(0).title, second.getChildren().get(0).title);
+    }
+
+    public void testParseLimits() throws Exception {
+
+        String rawJSON = "{\"List\": [1, 2, 3, 4, 5], \"Deep\": {\"a\": {\"b\": {\"c\": 1}, \"d\": 2}}, \"Long\": \"abcdefgh\"}";
+
+        JSONExplainBridge bridge = new JSONExplainBridge().setParseLimits(
+                new ParseLimits().setMaxChildren(3).setMaxDepth(2).setMaxValueLength(4));
+
+        Explain.Node stream = bridge.parseJSON(rawJSON, "Foo", true);
+        Explain.Node list = (Explain.Node) stream.children.get(0);
+        assertEquals(list.size(), 4);
+        assertEquals(list.children.get(3).title, "... 2 more elided");
+
+        // The contents of objects at the maximal depth are only counted
+        Explain.Node a = (Explain.Node) ((Explain.Node) stream.children.get(1)).children.get(0);
+        assertEquals(a.size(), 1);
+        assertEquals(a.children.get(0).title, "... 2 more elided");
+
+        assertEquals(((Explain.ValueNode) stream.children.get(2)).value, "\"abcd... 4 more elided\"");
+
+        // The same tree from a DOM
+        assertEquals(bridge.parseJSON(new JsonParser().parse(rawJSON), "Foo", true).toJSON(), stream.toJSON());
+
+        // Lazy trees have the same children, depth and values
+        Explain.Node lazy = bridge.parseLazy(ByteBuffer.wrap(rawJSON.getBytes("UTF-8")), "Foo", true);
+        list = (Explain.Node) lazy.getChildren().get(0);
+        assertEquals(list.size(), 4);
+        assertEquals(list.getChildren().get(3).title, "... 2 more elided");
+        a = (Explain.Node) ((Explain.Node) lazy.getChildren().get(1)).getChildren().get(0);
+        assertEquals(a.size(), 1);
+        assertEquals(a.getChildren().get(0).title, "... 2 more elided");
+        assertEquals(((Explain.ValueNode) lazy.getChildren().get(2)).value, "\"abcd... 4 more elided\"");
+
+        // Once the tree is full, the rest of every open node is elided
+        bridge.setParseLimits(new ParseLimits().setMaxNodes(3));
+        Explain.Node node = bridge.parseJSON(rawJSON, "Foo", true);
+        list = (Explain.Node) node.children.get(0);
+        assertEquals(node.size(), 2);
+        assertEquals(node.children.get(1).title, "... 2 more elided");
+        assertEquals(list.size(), 3);
+        assertEquals(list.children.get(2).title, "... 3 more elided");
+
+        // Lazy trees count the nodes as they are opened, so the root takes all of them here
+        lazy = bridge.parseLazy(ByteBuffer.wrap(rawJSON.getBytes("UTF-8")), "Foo", true);
+        assertEquals(lazy.size(), 3);
+        list = (Explain.Node) lazy.getChildren().get(0);
+        assertEquals(list.size(), 1);
+        assertEquals(list.getChildren().get(0).title, "... 5 more elided");
+    }
+
+    public void testRepeatedKeys() throws Exception {
+
+        // A repeated key keeps the place of the first entry and the value of the last, like gson's JsonObject
+        String rawJSON = "{\"a\": 1, \"b\": {\"x\": 1, \"x\": [2]}, \"a\": {\"z\": 3}, \"c\": 4, \"b\": 5, " +
+                "\"d\": {\"e\": 1, \"e\": 2}}";
+
+        JSONExplainBridge bridge = new JSONExplainBridge();
+        Explain.Node dom = bridge.parseJSON(new JsonParser().parse(rawJSON), "Foo", true);
+        assertEquals(dom.size(), 4);
+        assertEquals(dom.children.get(0).title, "a");
+        assertEquals(dom.children.get(0).getType(), Explain.Node.NODE);
+        assertEquals(((Explain.ValueNode) dom.children.get(1)).value, "5");
+        assertEquals(((Explain.Node) dom.children.get(3)).size(), 1);
+
+        // The streaming and the lazy paths give the same tree, with and without limits
+        ParseLimits[] limits = {
+                new ParseLimits(),
+                new ParseLimits().setMaxChildren(2),
+                new ParseLimits().setMaxDepth(1)
+        };
+        for (ParseLimits limit : limits) {
+            bridge.setParseLimits(limit);
+            String expected = bridge.parseJSON(new JsonParser().parse(rawJSON), "Foo", true).toJSON();
+            assertEquals(bridge.parseJSON(rawJSON, "Foo", true).toJSON(), expected);
+
+            Explain.Node lazy = bridge.parseLazy(ByteBuffer.wrap(rawJSON.getBytes("UTF-8")), "Foo", true);
+            int size = lazy.size();
+            assertEquals(lazy.toJSON(), expected);
+            assertEquals(lazy.size(), size);
+        }
+    }
+
+    public void testParseDeepJSON() throws Exception {
+
+        StringBuilder rawJSON = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            rawJSON.append("{\"a\": ");
+        }
+        rawJSON.append("1");
+        for (int i = 0; i < 200; i++) {
+            rawJSON.append("}");
+        }
+
+        JSONExplainBridge bridge = new JSONExplainBridge().setParseLimits(new ParseLimits().setMaxDepth(10));
+        Explain.Node node = bridge.parseJSON(rawJSON.toString(), "Foo", true);
+
+        int depth = 0;
+        while (node.size() > 0 && node.children.get(0).getType() == Explain.Node.NODE) {
+            node = (Explain.Node) node.children.get(0);
+            depth++;
+        }
+        assertEquals(depth, 10);
+        assertEquals(node.children.get(0).title, "... 1 more elided");
+
+        node = bridge.parseLazy(ByteBuffer.wrap(rawJSON.toString().getBytes("UTF-8")), "Foo", true);
+        depth = 0;
+        while (node.size() > 0 && node.getChildren().get(0).getType() == Explain.Node.NODE) {
+            node = (Explain.Node) node.getChildren().get(0);
+            depth++;
+        }
+        assertEquals(depth, 10);
+        assertEquals(node.getChildren().get(0).title, "... 1 more elided");
+    }
+}
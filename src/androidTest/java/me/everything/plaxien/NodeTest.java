@@ -2,6 +2,8 @@ package me.everything.plaxien;
 
 import junit.framework.TestCase;
 
+import java.util.List;
+
 public class NodeTest extends TestCase {
 
     public void testNode() {
@@ -55,5 +57,137 @@ public class NodeTest extends TestCase {
         assertNotNull(node);
         assertEquals(node.title, "title");
 
+        // Repeated titles are shared across the deserialized tree
+        Explain.Node child1 = (Explain.Node) node.children.get(0);
+        Explain.Node child2 = (Explain.Node) node.children.get(1);
+        assertSame(child1.children.get(0).title, child2.children.get(0).title);
+
+    }
+
+    public void testTrimAndPack() {
+        Explain.Node node = new Explain.Node("title", true);
+        node.addChild("Child 1").addValue("Foo", "Bar").addValue("Baz", 3);
+        node.addChild("Child 2").addValue("Foo", "Bar", "http://everything.me");
+        node.addValue("Foo", "Bar");
+
+        node.trimToSize(true);
+
+        // Only nodes holding nothing but plain values are packed
+        assertFalse(((ChildList) node.children).isPacked());
+        Explain.Node child1 = (Explain.Node) node.children.get(0);
+        Explain.Node child2 = (Explain.Node) node.children.get(1);
+        assertTrue(((ChildList) child1.children).isPacked());
+        assertFalse(((ChildList) child2.children).isPacked());
+
+        assertEquals(child1.size(), 2);
+        assertEquals(child1.children.get(1).title, "Baz");
+        assertEquals(((Explain.ValueNode) child1.children.get(1)).value, 3);
+        // Packed leaves are created once, and kept when the node is unpacked
+        Explain.BaseNode baz = child1.children.get(1);
+        assertSame(child1.children.get(1), baz);
+
+        // Adding to a packed node unpacks it
+        child1.addValue("Gazi", "Bag");
+        assertFalse(((ChildList) child1.children).isPacked());
+        assertSame(child1.children.get(1), baz);
+        assertEquals(child1.size(), 3);
+        assertEquals(child1.children.get(0).title, "Foo");
+        assertEquals(child1.children.get(2).title, "Gazi");
+    }
+
+    public void testLazyValue() {
+        final int[] calls = {0};
+        Explain.Node node = new Explain.Node("title", true);
+        node.addLazyValue("Lazy", new Explain.ValueSupplier() {
+            @Override
+            public Object get() {
+                calls[0]++;
+                return new StringBuilder("expensive");
+            }
+        });
+        node.trimToSize(true);
+
+        Explain.LazyValueNode lazy = (Explain.LazyValueNode) node.children.get(0);
+        assertFalse(lazy.isComputed());
+        assertEquals(calls[0], 0);
+
+        // Serializing computes the value once, and keeps it as a string
+        String json = node.toJSON();
+        assertTrue(json.contains("\"value\":\"expensive\""));
+        assertTrue(lazy.isComputed());
+        assertEquals(lazy.toString(), "expensive");
+        assertEquals(lazy.getValue(), "expensive");
+        assertEquals(calls[0], 1);
+    }
+
+    public void testContentHash() {
+        Explain.Node a = new Explain.Node("title", true);
+        Explain.Node grandChild = a.addChild("Child").addChild("Grandchild");
+        grandChild.addValue("Foo", "Bar");
+        a.addValue("Baz", 3);
+
+        Explain.Node b = new Explain.Node("title", false);
+        b.addChild("Child").addChild("Grandchild").addValue("Foo", "Bar");
+        b.addValue("Baz", 3);
+        b.trimToSize(true);
+
+        // Expansion and packing are not content
+        assertTrue(a.contentEquals(b));
+        assertEquals(a.contentHash(), b.contentHash());
+
+        // Building nodes that are not hashed, or changing another tree, doesn't invalidate the cached hashes
+        new Explain.Node("New", true).addChild("Child").addValue("Foo", "Bar");
+        Explain.Node other = new Explain.Node("Other", true);
+        other.addChild("Child").addValue("Foo", "Bar");
+        other.contentHash();
+        other.addValue("Baz", 3);
+        assertFalse(other.isHashCached());
+        assertTrue(a.isHashCached());
+        assertTrue(b.isHashCached());
+
+        // A change deep down invalidates the cached hashes of the ancestors
+        grandChild.addValue("Gazi", "Bag");
+        assertFalse(a.isHashCached());
+        assertFalse(a.contentEquals(b));
+        assertFalse(new Explain.ValueNode("Foo", "Bar").contentEquals(new Explain.ValueNode("Foo", "Baz")));
+        assertFalse(new Explain.ValueNode("Foo", "Bar").contentEquals(new Explain.ValueNode("Fo", "oBar")));
+    }
+
+    public void testContentHashOfSharedSubtree() {
+        Explain.Node shared = new Explain.Node("Shared", true);
+        shared.addValue("Foo", "Bar");
+        Explain.Node a = new Explain.Node("A", true);
+        a.addChild(shared);
+        Explain.Node b = new Explain.Node("B", true);
+        b.addChild(shared);
+
+        // The trees are hashed separately, and the second one finds the subtree hashed by the first
+        long hashA = a.contentHash();
+        long hashB = b.contentHash();
+        a.contentHash();
+        b.contentHash();
+        assertTrue(a.isHashCached());
+        assertTrue(b.isHashCached());
+
+        // So a change of the shared subtree invalidates both
+        shared.addValue("Baz", 3);
+        assertFalse(a.isHashCached());
+        assertFalse(b.isHashCached());
+        assertTrue(a.contentHash() != hashA);
+        assertTrue(b.contentHash() != hashB);
+    }
+
+    public void testDistinctChildren() {
+        Explain.Node node = new Explain.Node("title", true);
+        node.addChild("[1]").addValue("id", 1);
+        node.addChild("[1]").addValue("id", 2);
+        node.addChild("[1]").addValue("id", 1);
+        node.addValue("Foo", "Bar").addValue("Foo", "Bar");
+
+        List<Explain.BaseNode> distinct = node.distinctChildren();
+        assertEquals(distinct.size(), 3);
+        assertSame(distinct.get(0), node.children.get(0));
+        assertSame(distinct.get(1), node.children.get(1));
+        assertEquals(distinct.get(2).title, "Foo");
     }
 }
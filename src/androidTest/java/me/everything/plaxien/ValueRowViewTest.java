@@ -0,0 +1,68 @@
+package me.everything.plaxien;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * Times value rows as drawn views against inflated layouts, from creating the view to drawing it.
+ * The timings are logged under the "ValueRowViewTest" tag.
+ */
+public class ValueRowViewTest extends InstrumentationTestCase {
+
+    static final int ROWS = 2000;
+    static final int WIDTH = 1080;
+
+    Explain.ValueNode[] mValues;
+    Canvas mCanvas;
+    Bitmap mBitmap;
+
+    @Override
+    public void setUp() {
+        mValues = new Explain.ValueNode[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            mValues[i] = new Explain.ValueNode("Feature " + i, "Some value of the feature " + i);
+        }
+        mBitmap = Bitmap.createBitmap(WIDTH, 200, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+    }
+
+    @Override
+    public void tearDown() {
+        mBitmap.recycle();
+    }
+
+    /**
+     * Create, measure, lay out and draw a view for each of the values. Views are not recycled, so none is reused
+     * @return the time it took, in milliseconds
+     */
+    long renderRows(boolean drawn) {
+        ExplainViewFactory factory = new ExplainViewFactory(getInstrumentation().getContext());
+        factory.setDrawValueRows(drawn);
+
+        int widthSpec = View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY);
+        int heightSpec = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+        long start = SystemClock.elapsedRealtime();
+        for (Explain.ValueNode value : mValues) {
+            View view = factory.getView(value);
+            view.measure(widthSpec, heightSpec);
+            view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+            view.draw(mCanvas);
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    public void testDrawnRowsAreFaster() {
+        // Warm up both paths, so class loading and the first inflation are not timed
+        renderRows(false);
+        renderRows(true);
+
+        long inflated = renderRows(false);
+        long drawn = renderRows(true);
+        Log.i("ValueRowViewTest", ROWS + " value rows: inflated " + inflated + "ms, drawn " + drawn + "ms");
+        assertTrue(drawn < inflated);
+    }
+}
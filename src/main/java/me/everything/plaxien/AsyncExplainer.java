@@ -0,0 +1,30 @@
+package me.everything.plaxien;
+
+import java.util.concurrent.Future;
+
+/**
+ * An asynchronous variant of {@link Explainer}, for explainers that take a while to collect their data.
+ * Use {@link ExecutorExplainer} to run an existing synchronous explainer in the background.
+ */
+public interface AsyncExplainer {
+
+    /**
+     * Notified when an async explain is done
+     */
+    public interface Callback {
+        /**
+         * Called once the future is done - completed, failed or cancelled. It may be called on any thread,
+         * and even before getExplainAsync returns
+         * @param future the future that getExplainAsync returned
+         */
+        public void onDone(Future<Explain.Node> future);
+    }
+
+    /**
+     * Start collecting the explain. This must not block the calling thread
+     * @param callback notified once the explain is done
+     * @return a future of the explain tree. Cancelling it should stop the collection
+     */
+    public Future<Explain.Node> getExplainAsync(Callback callback, Object ...args);
+
+}
@@ -0,0 +1,201 @@
+package me.everything.plaxien;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A compact, array backed list of a node's children, with O(1) indexed access.
+ *
+ * Once a node is fully built it can be trimmed to its exact size. A node whose children are all
+ * plain value nodes can also be packed into parallel arrays of titles and values, so that no object
+ * is kept per leaf until it is needed. A packed list creates each leaf the first time it is accessed,
+ * and keeps it, so that a child is always the same instance. Adding to a packed list unpacks it first.
+ */
+class ChildList extends AbstractList<Explain.BaseNode> implements RandomAccess {
+
+    private static final Explain.BaseNode[] EMPTY = new Explain.BaseNode[0];
+
+    // While the list is packed, this holds the leaves that were accessed, or is empty if none were
+    private Explain.BaseNode[] mNodes;
+    private int mSize;
+
+    // Set only while the list is packed
+    private String[] mTitles;
+    private Object[] mValues;
+
+    // The node whose children these are, once its content hash was computed
+    Explain.Node mOwner;
+
+    ChildList() {
+        mNodes = EMPTY;
+    }
+
+    ChildList(int capacity) {
+        mNodes = capacity > 0 ? new Explain.BaseNode[capacity] : EMPTY;
+    }
+
+    ChildList(Collection<? extends Explain.BaseNode> nodes) {
+        mNodes = nodes.toArray(new Explain.BaseNode[nodes.size()]);
+        mSize = mNodes.length;
+    }
+
+    @Override
+    public Explain.BaseNode get(int index) {
+        checkIndex(index);
+        if (mTitles != null) {
+            return getPacked(index);
+        }
+        return mNodes[index];
+    }
+
+    /**
+     * Get a leaf of a packed list, creating it the first time. Synchronized, since packed lists are read by
+     * the main thread and by background indexing at the same time
+     */
+    private synchronized Explain.BaseNode getPacked(int index) {
+        if (mNodes.length == 0) {
+            mNodes = new Explain.BaseNode[mSize];
+        }
+        Explain.BaseNode node = mNodes[index];
+        if (node == null) {
+            node = new Explain.ValueNode(mTitles[index], mValues[index]);
+            mNodes[index] = node;
+        }
+        return node;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public Explain.BaseNode set(int index, Explain.BaseNode node) {
+        checkIndex(index);
+        unpack();
+        Explain.BaseNode old = mNodes[index];
+        mNodes[index] = node;
+        onModified();
+        return old;
+    }
+
+    /**
+     * Replace a child with a node of the same content, e.g. a shared instance of it. Unlike set(), this is not
+     * a modification of the tree, so cached content hashes stay valid
+     */
+    void replace(int index, Explain.BaseNode node) {
+        checkIndex(index);
+        unpack();
+        mNodes[index] = node;
+    }
+
+    @Override
+    public void add(int index, Explain.BaseNode node) {
+        if (index < 0 || index > mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+        unpack();
+        if (mSize == mNodes.length) {
+            // Most nodes are small, so we start small and grow by half
+            Explain.BaseNode[] nodes = new Explain.BaseNode[Math.max(4, mSize + (mSize >> 1))];
+            System.arraycopy(mNodes, 0, nodes, 0, mSize);
+            mNodes = nodes;
+        }
+        System.arraycopy(mNodes, index, mNodes, index + 1, mSize - index);
+        mNodes[index] = node;
+        mSize++;
+        modCount++;
+        onModified();
+    }
+
+    @Override
+    public Explain.BaseNode remove(int index) {
+        checkIndex(index);
+        unpack();
+        Explain.BaseNode old = mNodes[index];
+        System.arraycopy(mNodes, index + 1, mNodes, index, mSize - index - 1);
+        mNodes[--mSize] = null;
+        modCount++;
+        onModified();
+        return old;
+    }
+
+    /**
+     * Invalidate the cached content hashes that include the owner's children
+     */
+    private void onModified() {
+        if (mOwner != null) {
+            mOwner.onModified();
+        }
+    }
+
+    /**
+     * Shrink the backing array to the exact number of children
+     */
+    void trimToSize() {
+        if (mTitles == null && mNodes.length != mSize) {
+            Explain.BaseNode[] nodes = mSize > 0 ? new Explain.BaseNode[mSize] : EMPTY;
+            System.arraycopy(mNodes, 0, nodes, 0, mSize);
+            mNodes = nodes;
+        }
+    }
+
+    /**
+     * Pack the list into parallel arrays of titles and values, if all the children are plain
+     * value nodes without a click uri
+     * @return true if the list is packed
+     */
+    boolean pack() {
+        if (mTitles != null) {
+            return true;
+        }
+        if (mSize == 0) {
+            return false;
+        }
+        for (int i = 0; i < mSize; i++) {
+            Explain.BaseNode node = mNodes[i];
+            if (node.getClass() != Explain.ValueNode.class || ((Explain.ValueNode) node).onClickUri != null) {
+                return false;
+            }
+        }
+
+        String[] titles = new String[mSize];
+        Object[] values = new Object[mSize];
+        for (int i = 0; i < mSize; i++) {
+            Explain.ValueNode node = (Explain.ValueNode) mNodes[i];
+            titles[i] = node.title;
+            values[i] = node.value;
+        }
+        mTitles = titles;
+        mValues = values;
+        mNodes = EMPTY;
+        return true;
+    }
+
+    boolean isPacked() {
+        return mTitles != null;
+    }
+
+    private synchronized void unpack() {
+        if (mTitles == null) {
+            return;
+        }
+        // Leaves that were already handed out are kept
+        Explain.BaseNode[] nodes = mNodes.length > 0 ? mNodes : new Explain.BaseNode[mSize];
+        for (int i = 0; i < mSize; i++) {
+            if (nodes[i] == null) {
+                nodes[i] = new Explain.ValueNode(mTitles[i], mValues[i]);
+            }
+        }
+        mNodes = nodes;
+        mTitles = null;
+        mValues = null;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+    }
+}
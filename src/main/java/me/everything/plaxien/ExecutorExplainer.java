@@ -0,0 +1,47 @@
+package me.everything.plaxien;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs a synchronous explainer on an executor, so it can be used as an {@link AsyncExplainer}
+ */
+public class ExecutorExplainer implements AsyncExplainer {
+
+    private static final ExecutorService sDefaultExecutor = Executors.newCachedThreadPool();
+
+    private final Explainer mExplainer;
+    private final ExecutorService mExecutor;
+
+    /**
+     * Run the explainer on a shared executor, so that several explainers run in parallel
+     */
+    public ExecutorExplainer(Explainer explainer) {
+        this(explainer, sDefaultExecutor);
+    }
+
+    public ExecutorExplainer(Explainer explainer, ExecutorService executor) {
+        mExplainer = explainer;
+        mExecutor = executor;
+    }
+
+    @Override
+    public Future<Explain.Node> getExplainAsync(final Callback callback, final Object... args) {
+        FutureTask<Explain.Node> future = new FutureTask<Explain.Node>(new Callable<Explain.Node>() {
+            @Override
+            public Explain.Node call() throws Exception {
+                return mExplainer.getExplain(args);
+            }
+        }) {
+            @Override
+            protected void done() {
+                callback.onDone(this);
+            }
+        };
+        mExecutor.execute(future);
+        return future;
+    }
+}
@@ -1,7 +1,6 @@
 package me.everything.plaxien;
 
 import android.content.Intent;
-import android.net.Uri;
 import android.util.Log;
 
 import com.google.gson.Gson;
@@ -12,10 +11,16 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is the main Explain API encapsulating the models and building explain trees
@@ -45,10 +50,165 @@ public class Explain {
             this.title = title;
         }
 
+        // The cached content hash, valid while the stamp of its group is the one it was computed at
+        private transient long mContentHash;
+        private transient volatile HashGroup mHashGroup;
+        private transient volatile int mHashStamp;
 
+        /**
+         * Get a 64 bit hash of the node's content - its title and value, or its title and the content of all
+         * its children, in order. Whether a node is expanded is not part of its content.
+         *
+         * Hashes are computed bottom-up and cached on the nodes, so once a tree is hashed, comparing any two
+         * subtrees is O(1). Changing the children of a node whose hash is cached invalidates the cached hashes
+         * of its tree, and of the trees that share subtrees with it, but not of any other tree.
+         * Lazy nodes and values are loaded to compute their hash.
+         */
+        public long contentHash() {
+            HashGroup group = mHashGroup;
+            // A node that was hashed before is hashed again in its group, so its tree stays in one group
+            return contentHash(group != null ? group.find() : new HashGroup());
+        }
+
+        long contentHash(HashGroup group) {
+            HashGroup current = mHashGroup;
+            if (current != null) {
+                current = current.find();
+                if (mHashStamp == current.mStamp) {
+                    if (current != group) {
+                        // A subtree hashed along with another tree, whose hashes must be invalidated along with ours
+                        group.merge(current);
+                    }
+                    return mContentHash;
+                }
+            }
+            // Read before computing, so that a hash computed while the tree changes is not taken as valid
+            int stamp = group.mStamp;
+            mContentHash = computeContentHash(group);
+            mHashGroup = group;
+            mHashStamp = stamp;
+            onHashed();
+            return mContentHash;
+        }
+
+        /**
+         * @return whether the node's content hash is cached and valid
+         */
+        boolean isHashCached() {
+            HashGroup group = mHashGroup;
+            return group != null && mHashStamp == group.find().mStamp;
+        }
+
+        /**
+         * Invalidate the cached content hashes of the node's group, if the node's hash is cached. Otherwise there is
+         * no cached hash that includes the node - hashes are computed bottom-up in the same group, so an ancestor
+         * that was hashed since the last change would have hashed the node as well
+         */
+        void onModified() {
+            HashGroup group = mHashGroup;
+            if (group != null) {
+                group.invalidate(mHashStamp);
+            }
+        }
+
+        /**
+         * Called once the node's content hash is computed
+         */
+        void onHashed() {
+        }
+
+        long computeContentHash(HashGroup group) {
+            return Hashing.hash(Hashing.hash(Hashing.SEED, type), title);
+        }
+
+        /**
+         * Check whether two subtrees have the same content, by their content hashes
+         */
+        public boolean contentEquals(BaseNode other) {
+            return other != null && (other == this || contentHash() == other.contentHash());
+        }
+
+    }
+
+    /**
+     * The nodes whose content hashes were computed together - a tree, along with the trees it shares subtrees
+     * with. Its stamp is bumped when a node whose content hash is cached is changed, so that the hashes cached
+     * before the change are recomputed. Nodes don't know their parents, and subtrees may be shared, so this is
+     * what lets a change deep in a tree invalidate its ancestors, without invalidating unrelated trees.
+     *
+     * A node that is not hashed yet, or not since the last change, can be changed without invalidating anything -
+     * the cached hashes of its ancestors, if any, are already stale. So building trees, loading lazy nodes and
+     * diffing don't invalidate anything.
+     */
+    static final class HashGroup {
+        // Stamps are unique across groups, so a node's stamp is never valid in a group it was not hashed in
+        private static final AtomicInteger sStamps = new AtomicInteger();
+
+        volatile int mStamp = sStamps.incrementAndGet();
+        // Set once the group is merged into another
+        private volatile HashGroup mMerged;
+
+        HashGroup find() {
+            HashGroup group = this;
+            while (group.mMerged != null) {
+                group = group.mMerged;
+            }
+            return group;
+        }
+
+        /**
+         * Merge another group into this one, when a tree of this group is found to share a subtree hashed in the
+         * other. The hashes cached so far in either group are invalidated, as they are stamped differently,
+         * so they are computed once more within the merged group
+         */
+        void merge(HashGroup other) {
+            synchronized (HashGroup.class) {
+                HashGroup group = find();
+                other = other.find();
+                if (group != other) {
+                    other.mMerged = group;
+                    group.mStamp = sStamps.incrementAndGet();
+                }
+            }
+        }
 
+        /**
+         * Invalidate the hashes of the group if the given stamp is still valid
+         */
+        void invalidate(int stamp) {
+            synchronized (HashGroup.class) {
+                HashGroup group = find();
+                if (group.mStamp == stamp) {
+                    group.mStamp = sStamps.incrementAndGet();
+                }
+            }
+        }
+    }
 
+    /**
+     * 64 bit hashing of node content. Strings are hashed by all their chars rather than String.hashCode(),
+     * whose 32 bits collide too easily in trees of millions of nodes
+     */
+    static class Hashing {
+        static final long SEED = 0xcbf29ce484222325L;
+        static final long PRIME = 0x100000001b3L;
+
+        static long hash(long h, long value) {
+            h ^= value;
+            h *= PRIME;
+            // Mix the high bits down, so that small values affect the whole hash
+            return h ^ (h >>> 29);
+        }
 
+        static long hash(long h, String s) {
+            if (s == null) {
+                return hash(h, -1);
+            }
+            for (int i = 0; i < s.length(); i++) {
+                h = (h ^ s.charAt(i)) * PRIME;
+            }
+            return hash(h, s.length());
+        }
     }
 
     /**
@@ -63,6 +223,9 @@ public class Explain {
 
         boolean expanded = false;
 
+        // Set on subtrees that may be shared by several parents, which must not be modified
+        transient boolean frozen;
+
         /**
          * Constructor with a list of children
          * @param title the branch title
@@ -89,7 +252,7 @@ public class Explain {
         public Node(String title, BaseNode[] children, boolean expanded) {
             super(NODE, title);
 
-            this.children = new LinkedList<BaseNode>();
+            this.children = new ChildList();
             if (children != null && children.length > 0) {
                 Collections.addAll(this.children, children);
             }
@@ -108,11 +271,13 @@ public class Explain {
          */
         public Node addChild(String title, boolean expanded) {
             Node ret = new Node(title, null, expanded);
+            checkMutable();
             children.add(ret);
             return ret;
         }
 
         public Node addChild(Node node) {
+            checkMutable();
             children.add(node);
             return node;
         }
@@ -135,6 +300,7 @@ public class Explain {
         public Node addValue(String name, Object value) {
 
             ValueNode ret = new ValueNode(name, value);
+            checkMutable();
             children.add(ret);
             return this;
         }
@@ -146,10 +312,23 @@ public class Explain {
          */
         public Node addValue(Object value) {
             ValueNode ret = new ValueNode(value.toString(), "");
+            checkMutable();
             children.add(ret);
             return this;
         }
 
+        /**
+         * Add a value child node whose value is computed only when it is first shown or serialized
+         * @param name the value name
+         * @param supplier computes the value. It is called at most once, possibly on another thread
+         * @return the current node, so that you can append more children to it
+         */
+        public Node addLazyValue(String name, ValueSupplier supplier) {
+            checkMutable();
+            children.add(new LazyValueNode(name, supplier));
+            return this;
+        }
+
         /**
          * Add a value child node
          * @param name the value name
@@ -160,6 +339,7 @@ public class Explain {
         public Node addValue(String name, Object value, String onClickUri) {
 
             ValueNode ret = new ValueNode(name, value, onClickUri);
+            checkMutable();
             children.add(ret);
             return this;
         }
@@ -174,24 +354,148 @@ public class Explain {
         public Node addValue(String name, Object value, Intent onClickIntent) {
 
             ValueNode ret = new ValueNode(name, value, onClickIntent);
+            checkMutable();
             children.add(ret);
             return this;
         }
 
+        /**
+         * Move the last child into the place of an earlier one, which is dropped. This lets a builder replace
+         * a child in its place, like a repeated key of a JSON object replaces the value of the first one
+         * @param index the index of the child to replace
+         * @return the current node, so that you can append more children to it
+         */
+        public Node replaceWithLast(int index) {
+            checkMutable();
+            children.set(index, children.remove(children.size() - 1));
+            return this;
+        }
+
         public int size() {
             return children.size();
         }
 
+        void checkMutable() {
+            if (frozen) {
+                throw new UnsupportedOperationException("Shared subtrees can't be modified: " + title);
+            }
+        }
+
+        /**
+         * Trim the children storage of the whole subtree to its exact size. Call this once the tree is built.
+         * Children that have not been loaded yet by lazy nodes are not affected
+         * @param packLeaves also pack nodes that hold only plain values into parallel arrays of titles and
+         *                   values, instead of keeping an object per value
+         */
+        public void trimToSize(boolean packLeaves) {
+            // Shared subtrees are trimmed before they are frozen
+            if (frozen) {
+                return;
+            }
+            if (!(children instanceof ChildList)) {
+                ChildList list = new ChildList(children);
+                // The same children, so a cached hash of the node stays valid, and is invalidated when they change
+                list.mOwner = this;
+                children = list;
+            }
+
+            ChildList list = (ChildList) children;
+            if (packLeaves && list.pack()) {
+                return;
+            }
+
+            list.trimToSize();
+            for (BaseNode child : list) {
+                if (child.type == NODE) {
+                    ((Node) child).trimToSize(packLeaves);
+                }
+            }
+        }
+
+        @Override
+        void onHashed() {
+            if (children instanceof ChildList) {
+                ((ChildList) children).mOwner = this;
+            }
+        }
+
+        @Override
+        long computeContentHash(HashGroup group) {
+            long h = super.computeContentHash(group);
+            List<BaseNode> children = getChildren();
+            for (int i = 0; i < children.size(); i++) {
+                h = Hashing.hash(h, children.get(i).contentHash(group));
+            }
+            return Hashing.hash(h, children.size());
+        }
+
+        /**
+         * Get the node's children without duplicates - children with the same content as an earlier child
+         * are left out. Useful for arrays of identical elements
+         * @return a new list of the distinct children, in order
+         */
+        public List<BaseNode> distinctChildren() {
+            List<BaseNode> children = getChildren();
+            List<BaseNode> ret = new ArrayList<BaseNode>();
+            HashSet<Long> seen = new HashSet<Long>();
+            for (int i = 0; i < children.size(); i++) {
+                BaseNode child = children.get(i);
+                if (seen.add(child.contentHash())) {
+                    ret.add(child);
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * Get the node's children. Nodes that build their children on demand load them first
+         * @return the list of child nodes
+         */
+        List<BaseNode> getChildren() {
+            loadChildren();
+            return children;
+        }
+
+        /**
+         * A hook for nodes that materialize their children lazily. It is called whenever the children
+         * are about to be accessed, and must populate them using the add* methods
+         */
+        protected void loadChildren() {
+        }
+
+        /**
+         * Whether the node's children are in memory. Nodes that materialize their children lazily
+         * are not loaded until their children are first accessed
+         */
+        protected boolean isLoaded() {
+            return true;
+        }
+
+        /**
+         * Load the children of the entire subtree, so that it can be walked through the children field
+         */
+        void loadAll() {
+            for (BaseNode child : getChildren()) {
+                if (child.type == NODE) {
+                    ((Node) child).loadAll();
+                }
+            }
+        }
+
 
         /**
          * To an internal json representation
          * @return
          */
         String toJSON() {
-            Gson gson = new Gson();
-            String json = gson.toJson(this);
-
-            return json;
+            StringWriter out = new StringWriter();
+            try {
+                ExplainJsonWriter.write(this, out);
+            } catch (IOException e) {
+                // A string writer never fails
+                throw new IllegalStateException(e);
+            }
+            return out.toString();
         }
 
         /**
@@ -201,10 +505,26 @@ public class Explain {
          * @return
          */
          static Node fromJSON(String rawJSON) {
-            Gson gson = new GsonBuilder().registerTypeAdapter(BaseNode.class, new Deserializer()).create();
+            return fromJSON(new StringReader(rawJSON));
+        }
+
+        /**
+         * From an internal json representation, streamed from a reader.
+         * DO NOT USE THIS FOR SERVER GENERATED JSONS, this is for internal serialization and dumping only
+         * @param reader
+         * @return
+         */
+        static Node fromJSON(Reader reader) {
+            Deserializer deserializer = new Deserializer();
+            Gson gson = new GsonBuilder().registerTypeAdapter(BaseNode.class, deserializer).create();
 
             try {
-                Node ret =  gson.fromJson(rawJSON, Node.class);
+                Node ret =  gson.fromJson(reader, Node.class);
+                if (ret != null) {
+                    // The root is not deserialized through the deserializer
+                    ret.title = deserializer.mDictionary.intern(ret.title);
+                    ret.trimToSize(true);
+                }
 
                 return ret;
             } catch (Exception e) {
@@ -261,24 +581,95 @@ public class Explain {
 
 
 
+        /**
+         * @return the node's value
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        long computeContentHash(HashGroup group) {
+            long h = super.computeContentHash(group);
+            h = Hashing.hash(h, getValue() != null ? toString() : null);
+            return Hashing.hash(h, onClickUri);
+        }
+
         public String toString() {
+            Object value = getValue();
             return value != null ? value.toString() : "null";
         }
     }
 
-    /** Internal deserializer to distinguish between value and branch nodes.*/
+    /**
+     * Supplies the value of a lazy value node
+     */
+    public interface ValueSupplier {
+        public Object get();
+    }
+
+    /**
+     * A value node whose value is computed only when it is first needed - when the node is shown, or
+     * when the tree is serialized. Use it for values whose string form is costly to compute.
+     * The supplied value is kept as its string, and the supplier is released once it is called.
+     */
+    public static class LazyValueNode extends ValueNode {
+        private transient ValueSupplier mSupplier;
+
+        public LazyValueNode(String title, ValueSupplier supplier) {
+            super(title, null);
+            mSupplier = supplier;
+        }
+
+        @Override
+        public synchronized Object getValue() {
+            if (mSupplier != null) {
+                Object supplied;
+                try {
+                    supplied = mSupplier.get();
+                } catch (RuntimeException e) {
+                    Log.e("Explain", "Could not compute the value of " + title, e);
+                    supplied = e.toString();
+                }
+                value = supplied != null ? supplied.toString() : null;
+                mSupplier = null;
+            }
+            return value;
+        }
+
+        /**
+         * @return true if the value has already been computed
+         */
+        public synchronized boolean isComputed() {
+            return mSupplier == null;
+        }
+    }
+
+    /**
+     * Internal deserializer to distinguish between value and branch nodes.
+     * It also shares repeated titles and short string values across the deserialized tree
+     */
     static class Deserializer implements JsonDeserializer<BaseNode> {
+        final StringDictionary mDictionary = new StringDictionary();
+
         public BaseNode deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
                 throws JsonParseException {
             if (!json.isJsonObject()) {
                 return null;
             }
             JsonObject obj = json.getAsJsonObject();
+            BaseNode ret;
             if (obj.get("type").getAsInt() == BaseNode.NODE) {
-                return context.deserialize(json, Node.class);
+                ret = context.deserialize(json, Node.class);
             } else {
-                return context.deserialize(json, ValueNode.class);
+                ValueNode valueNode = context.deserialize(json, ValueNode.class);
+                if (valueNode.value instanceof String) {
+                    valueNode.value = mDictionary.intern((String) valueNode.value);
+                }
+                ret = valueNode;
             }
+            ret.title = mDictionary.intern(ret.title);
+            return ret;
         }
     }
 }
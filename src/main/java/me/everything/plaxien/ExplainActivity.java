@@ -1,18 +1,16 @@
 package me.everything.plaxien;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-
-import me.everything.plaxien.json.JSONExplainBridge;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
@@ -25,9 +23,10 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.ScrollView;
-
-import com.google.gson.JsonElement;
+import android.view.ViewGroup;
+import android.widget.ListView;
+import android.widget.SearchView;
+import android.widget.Toast;
 
 public class ExplainActivity extends Activity {
 	private static final String TAG = "plaxien/ExplainActivity";
@@ -36,11 +35,127 @@ public class ExplainActivity extends Activity {
 	private static final String EXTRA_ROOT_TITLE = "rootTitle";
 	private static final String EXTRA_DELETE_WHEN_DONE = "deleteWhenDone";
     private static final String EXTRA_INTERNAL_SERIALIZATION = "internalSerialization";
+    private static final String EXTRA_HANDOFF_TOKEN = "handoffToken";
+
+    private static final String STATE_DUMP_WRITTEN = "dumpWritten";
+    private static final String STATE_TREE = "tree";
+    private static final String STATE_EXPANSION = "expansion";
+    private static final String STATE_NODE_COUNT = "nodeCount";
+    private static final String STATE_FIRST_POSITION = "firstPosition";
+    private static final String STATE_FIRST_TOP = "firstTop";
+
+    /**
+     * The tree and its index, kept across a configuration change so they aren't loaded again
+     */
+    private static class RetainedTree {
+        final Explain.Node root;
+        final ExplainSearchIndex index;
+        final boolean lazy;
+        final DumpWrite dumpWrite;
+        final DumpWrite exportWrite;
+
+        RetainedTree(Explain.Node root, ExplainSearchIndex index, boolean lazy, DumpWrite dumpWrite,
+                     DumpWrite exportWrite) {
+            this.root = root;
+            this.index = index;
+            this.lazy = lazy;
+            this.dumpWrite = dumpWrite;
+            this.exportWrite = exportWrite;
+        }
+    }
+
+    /**
+     * A dump or an export of the handed off tree that is being written. It outlives the activity that started it
+     * on a configuration change, and reports to the activity that is showing when it's done
+     */
+    private static class DumpWrite implements ExplainDumpWriter.Callback {
+        final File file;
+        Future<?> future;
+        boolean writing = true;
+        boolean failed;
+        // Set when a share waits for the dump
+        boolean shareWhenWritten;
+        // The activity showing the tree, or null between its destruction and its replacement's creation
+        ExplainActivity activity;
+
+        DumpWrite(ExplainActivity activity, File file) {
+            this.activity = activity;
+            this.file = file;
+        }
+
+        @Override
+        public void onWritten(File file) {
+            writing = false;
+            if (activity != null) {
+                activity.onDumpDone(this);
+            }
+        }
+
+        @Override
+        public void onError(File file, IOException e) {
+            // Already logged by the writer
+            writing = false;
+            failed = true;
+            if (activity != null) {
+                activity.onDumpDone(this);
+            }
+        }
+    }
 	
 	private boolean mDeleteWhenDone = false;
     private File mJsonFile = null;
 	private String mRootTitle = "Explanation";
     private boolean mInternalSerialization;
+    private ExplainLoader mLoader;
+    private ViewGroup mContentLayout;
+    private View mProgress;
+
+    // A tree handed off in memory, and its token
+    private Explain.Node mHandoffRoot;
+    private String mHandoffToken;
+    // Set while the handed off tree is not dumped to mJsonFile yet, and no dump is being written
+    private boolean mDumpPending;
+    // Set once the handed off tree is dumped to mJsonFile
+    private boolean mDumpWritten;
+    // The last dump of the handed off tree that was started
+    private DumpWrite mDumpWrite;
+    // The JSON export of the handed off tree that is shared, once it's started
+    private DumpWrite mExportWrite;
+    // Set when the handed off tree is gone, and was never dumped
+    private boolean mTreeUnavailable;
+
+    // Only this many matches are shown, the rest are just counted
+    private static final int MAX_SHOWN_MATCHES = 1000;
+    private static final ExecutorService sSearchExecutor = Executors.newSingleThreadExecutor();
+
+    private static boolean sCompressDumps;
+
+    private Explain.Node mRoot;
+    private ListView mTreeView;
+    private ExplainTreeAdapter mTreeAdapter;
+    // Saved by the activity this one replaces, and applied once the tree is indexed
+    private Bundle mSavedTreeState;
+    private ExplainSearchIndex mSearchIndex;
+    private String mSearchQuery = "";
+    // Results of older searches are dropped once a newer search has started
+    private int mSearchGeneration;
+
+    /**
+     * Set how much memory the trees kept for reopening their dumps may take. Parsed trees are cached
+     * across activities, so that rotating or reopening the same dump doesn't parse it again
+     * @param bytes the estimated size of the cached trees, or 0 to disable the cache
+     */
+    public static void setTreeCacheBudget(long bytes) {
+        ExplainTreeCache.setBudget(bytes);
+    }
+
+    /**
+     * Set whether dumps written from now on are gzip compressed. Compressed dumps are written with a ".gz" extension,
+     * and are also shared compressed. Dumps are read whether they are compressed or not
+     */
+    public static void setCompressDumps(boolean compress) {
+        sCompressDumps = compress;
+    }
 
     /**
      * Convenience function to create a new explain intent for launching
@@ -68,17 +183,30 @@ public class ExplainActivity extends Activity {
      * @param context the app context
      */
     private static File createDumpFile(String name, Context context) {
-        return new File(context.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS), name + ".json");
+        return createDumpFile(name, ".json", context);
+    }
+
+    /**
+     * Create a shared dump file
+     * @param name the name of the file - practically the root title
+     * @param extension the extension of the file, by its format
+     * @param context the app context
+     */
+    private static File createDumpFile(String name, String extension, Context context) {
+        if (sCompressDumps) {
+            extension += ExplainDumpCompression.EXTENSION;
+        }
+        return new File(context.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS), name + extension);
     }
 
     /**
-     * Dump a json string to the out file
+     * Dump a json string to the out file, compressing it if the file's name ends with ".gz"
      */
     private static void writeDump(File file, String dump) {
         PrintWriter out;
         try {
-            out = new PrintWriter(file);
-        } catch (FileNotFoundException e) {
+            out = new PrintWriter(new OutputStreamWriter(ExplainDumpCompression.openOutput(file), "UTF-8"));
+        } catch (IOException e) {
         	Log.d(TAG, "Failed writing dump file: " + file);
             return;
         }
@@ -99,14 +227,17 @@ public class ExplainActivity extends Activity {
      * @param root the root node of an explain tree
      * @param deleteFileWhenDone delete the file when the activity is closed
      *
+     * The tree is handed to the activity in memory, and only dumped to a binary file when the activity may be
+     * killed along with the process. It's exported to a JSON file when it's shared, since the binary format is
+     * only read by Plaxien itself. The tree must not be modified after this call.
+     *
      * @see me.everything.plaxien.Explain.Node
      */
     public static void explain(Context context, String rootTitle, Explain.Node root, boolean deleteFileWhenDone) {
-        File explainFile = createDumpFile(rootTitle, context);
-
-        writeDump(explainFile, root.toJSON());
+        File explainFile = createDumpFile(rootTitle, ".plxb", context);
 
         Intent intent = ExplainActivity.createIntent(context, rootTitle, explainFile, deleteFileWhenDone, true);
+        intent.putExtra(EXTRA_HANDOFF_TOKEN, ExplainHandoff.put(root));
         intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
         context.startActivity(intent);
     }
@@ -146,7 +277,7 @@ public class ExplainActivity extends Activity {
 
 
     /**
-     * Create an explain activity from a JSON file that already exists on the device
+     * Create an explain activity from a JSON file that already exists on the device. The file may be gzip compressed
      * @param context the app context
      * @param rootTitle the title of the explain activity
      * @param jsonDataFile the path to where the file is stored
@@ -161,39 +292,6 @@ public class ExplainActivity extends Activity {
         context.startActivity(intent);
     }
 
-    /**
-     * Read all the contents of a stream into a string
-     * @param is input stream
-     * @return the stream content
-     * @throws IOException
-     */
-	private static String readAll(InputStream is) throws IOException {
-	    BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-	    StringBuilder sb = new StringBuilder();
-	    String line = null;
-	    while ((line = reader.readLine()) != null) {
-	      sb.append(line).append("\n");
-	    }
-	    reader.close();
-	    return sb.toString();
-	}
-
-	// from [http://stackoverflow.com/questions/12910503/read-file-as-string]
-	private static String getStringFromFile(File file) {
-		try {
-		    FileInputStream fin = new FileInputStream(file);
-			try {
-			    String ret = readAll(fin);
-			    return ret;
-			} finally {
-				fin.close();
-			}
-		} catch (IOException ex) {
-			Log.e(TAG, "Failed reading file: " + file, ex);
-			return null;
-		}
-	}
-	
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -218,41 +316,257 @@ public class ExplainActivity extends Activity {
             mInternalSerialization = intent.getExtras().getBoolean(EXTRA_INTERNAL_SERIALIZATION);
         }
 
-		ScrollView contentLayout = (ScrollView) findViewById(R.id.plaxien_content_layout);
-		
-		String jsonData = "{}";
-		if (mJsonFile != null) {
-			jsonData = getStringFromFile(mJsonFile);
+		if (intent.hasExtra(EXTRA_HANDOFF_TOKEN)) {
+			mHandoffToken = intent.getExtras().getString(EXTRA_HANDOFF_TOKEN);
+			mHandoffRoot = ExplainHandoff.take(mHandoffToken);
 		}
 
-        ExplainViewFactory viewFactory = new ExplainViewFactory(this);
-        Explain.Node node;
-        
-        try {
-	        if (!mInternalSerialization) {
-	            JSONExplainBridge bridge = new JSONExplainBridge(); 
-            	node = bridge.parseJSON(jsonData, mRootTitle, true);
-	        } else {
-	            node = Explain.Node.fromJSON(jsonData);
-	            if (node == null) {
-	            	throw new Exception("Failed parsing: " + jsonData);
-	            }
-	        }
-        } catch (Exception e) {
-        	node = new Explain.Node("Could not parse explain JSON", true);
-        	node.addValue("Error", e.getMessage());
-        }
+		ExplainTreeCache.register(this);
 
-		View view = viewFactory.getNodeView(node);
-		
-		contentLayout.addView(view);		
+		mContentLayout = (ViewGroup) findViewById(R.id.plaxien_content_layout);
+		mProgress = findViewById(R.id.plaxien_progress);
+
+		ExplainLoader.Listener listener = new ExplainLoader.Listener() {
+			@Override
+			public void onProgress(int stage) {
+				showProgress(stage);
+			}
+
+			@Override
+			public void onLoaded(Explain.Node root) {
+				showTree(root);
+				// Lazy trees are indexed when they are first searched, or when there are saved expanded nodes
+				// to restore, which are saved by their ids in the index
+				if (mLoader.isLazy()) {
+					if (mSavedTreeState != null && mSavedTreeState.containsKey(STATE_EXPANSION)) {
+						mLoader.index();
+					}
+					invalidateOptionsMenu();
+				}
+			}
+
+			@Override
+			public void onError(Exception e) {
+				Explain.Node node = new Explain.Node("Could not parse explain JSON", true);
+				node.addValue("Error", e.getMessage());
+				showTree(node);
+			}
+
+			@Override
+			public void onIndexed(ExplainSearchIndex index) {
+				mSearchIndex = index;
+				restoreTreeState();
+				invalidateOptionsMenu();
+				search(mSearchQuery);
+			}
+		};
+
+		if (savedInstanceState != null) {
+			mSavedTreeState = savedInstanceState.getBundle(STATE_TREE);
+		}
+		RetainedTree retained = (RetainedTree) getLastNonConfigurationInstance();
+		if (mHandoffRoot != null) {
+			// Only set once the dump was written, so a stale dump of the same name is never taken for it
+			mDumpWritten = savedInstanceState != null && savedInstanceState.getBoolean(STATE_DUMP_WRITTEN);
+			mDumpPending = !mDumpWritten;
+			if (retained != null && retained.dumpWrite != null) {
+				// A dump started by the activity this one replaces, maybe with a share waiting for it
+				mDumpWrite = retained.dumpWrite;
+				mDumpWrite.activity = this;
+				mDumpPending = false;
+				if (!mDumpWrite.writing) {
+					onDumpDone(mDumpWrite);
+				}
+			}
+		}
+		if (retained != null && retained.exportWrite != null) {
+			mExportWrite = retained.exportWrite;
+			mExportWrite.activity = this;
+			if (!mExportWrite.writing) {
+				onDumpDone(mExportWrite);
+			}
+		}
+
+		if (retained != null) {
+			// Recreated after a configuration change - the tree is neither read nor parsed again
+			showTree(retained.root);
+			mLoader = new ExplainLoader(retained.root, retained.lazy, listener);
+			if (retained.index != null) {
+				listener.onIndexed(retained.index);
+			} else if (!retained.lazy) {
+				mLoader.start();
+			}
+		} else if (mHandoffRoot != null) {
+			// The tree is in memory - it's shown right away, and only indexed in the background
+			showTree(mHandoffRoot);
+			mLoader = new ExplainLoader(mHandoffRoot, false, listener);
+			mLoader.start();
+		} else if (mHandoffToken != null && !mJsonFile.exists()) {
+			// The handed off tree was dropped before the activity took it, e.g. when more trees were handed off
+			// meanwhile, and it was never dumped
+			mTreeUnavailable = true;
+			Explain.Node node = new Explain.Node(getString(R.string.explain_unavailable), true);
+			showTree(node);
+			mLoader = new ExplainLoader(node, false, listener);
+		} else {
+			// Reading and parsing happen in the background, views are built once the top levels are parsed.
+			// This is also where a handed off tree is read back from its dump after the process restarted
+			mLoader = new ExplainLoader(mJsonFile, mRootTitle, mInternalSerialization, listener);
+			mLoader.start();
+		}
+	}
+
+	@Override
+	public Object onRetainNonConfigurationInstance() {
+		return mRoot != null ? new RetainedTree(mRoot, mSearchIndex, mLoader.isLazy(), mDumpWrite,
+				mExportWrite) : null;
+	}
+
+	/**
+	 * Expand the nodes that were expanded before the activity was recreated, and scroll back to where the list was.
+	 * The expanded nodes are saved by their ids in the search index, so this waits for the tree to be indexed
+	 */
+	private void restoreTreeState() {
+		Bundle state = mSavedTreeState;
+		mSavedTreeState = null;
+		// The saved ids only make sense for the same tree
+		if (state == null || mTreeAdapter == null || state.getInt(STATE_NODE_COUNT) != mSearchIndex.size()) {
+			return;
+		}
+		mTreeAdapter.setExpansionState(mSearchIndex, state.getLongArray(STATE_EXPANSION));
+		mTreeView.setSelectionFromTop(state.getInt(STATE_FIRST_POSITION), state.getInt(STATE_FIRST_TOP));
+	}
+
+	private void saveTreeState(Bundle outState) {
+		if (mSavedTreeState != null) {
+			// Not restored yet, so it still holds
+			outState.putBundle(STATE_TREE, mSavedTreeState);
+			return;
+		}
+		// A lazy tree that was never searched is not indexed, so its expanded nodes can't be saved
+		if (mTreeAdapter == null || mSearchIndex == null) {
+			return;
+		}
+		Bundle state = new Bundle();
+		state.putLongArray(STATE_EXPANSION, mTreeAdapter.getExpansionState(mSearchIndex));
+		state.putInt(STATE_NODE_COUNT, mSearchIndex.size());
+		// Filtered rows are not restored, so neither is their scroll position
+		if (!mTreeAdapter.isFiltered() && mTreeView.getChildCount() > 0) {
+			state.putInt(STATE_FIRST_POSITION, mTreeView.getFirstVisiblePosition());
+			state.putInt(STATE_FIRST_TOP, mTreeView.getChildAt(0).getTop());
+		}
+		outState.putBundle(STATE_TREE, state);
+	}
+
+	/**
+	 * Dump the handed off tree to mJsonFile in the background, so it can be read back if the process is killed
+	 */
+	private void dumpTree() {
+		mDumpPending = false;
+		mDumpWrite = new DumpWrite(this, mJsonFile);
+		mDumpWrite.future = ExplainDumpWriter.writeAsync(mHandoffRoot, mJsonFile, ExplainDumpWriter.FORMAT_BINARY,
+				mDumpWrite);
+	}
+
+	/**
+	 * The file a binary dump is exported to as JSON, next to it and compressed like it
+	 */
+	static File exportFile(File dump) {
+		String name = dump.getName();
+		int extension = name.lastIndexOf(".plxb");
+		if (extension >= 0) {
+			name = name.substring(0, extension);
+		}
+		name += ExplainDumpCompression.shouldCompress(dump) ? ".json" + ExplainDumpCompression.EXTENSION : ".json";
+		return new File(dump.getParentFile(), name);
+	}
+
+	/**
+	 * Called once a dump or an export is done, on the activity that is showing then. If a share is waiting for it,
+	 * it's shared
+	 */
+	private void onDumpDone(DumpWrite write) {
+		if (write.failed) {
+			// Try again next time
+			if (write == mDumpWrite) {
+				mDumpWrite = null;
+				mDumpPending = true;
+			} else {
+				mExportWrite = null;
+			}
+			if (!isFinishing()) {
+				Toast.makeText(this, R.string.dump_failed, Toast.LENGTH_LONG).show();
+			}
+			return;
+		}
+		if (write == mDumpWrite) {
+			mDumpWritten = true;
+		}
+		if (write.shareWhenWritten && !isFinishing()) {
+			write.shareWhenWritten = false;
+			share(write.file);
+		}
+	}
+
+	@Override
+	protected void onSaveInstanceState(Bundle outState) {
+		super.onSaveInstanceState(outState);
+		// The process may be killed from now on, and the tree would then be read back from its dump
+		if (mDumpPending) {
+			dumpTree();
+		}
+		outState.putBoolean(STATE_DUMP_WRITTEN, mDumpWritten);
+		saveTreeState(outState);
+	}
+
+	private void showProgress(int stage) {
+		int message = stage == ExplainLoader.STAGE_READ ? R.string.progress_reading
+				: stage == ExplainLoader.STAGE_PARSE ? R.string.progress_parsing : R.string.progress_building;
+		getActionBar().setSubtitle(getString(message));
+	}
+
+	private void showTree(Explain.Node node) {
+		ExplainViewFactory viewFactory = new ExplainViewFactory(this);
+
+		// The flat tree view only inflates the visible rows, so huge explains open instantly
+		ListView view = viewFactory.getTreeView(node);
+		mRoot = node;
+		mTreeView = view;
+		mTreeAdapter = (ExplainTreeAdapter) view.getAdapter();
+
+		mProgress.setVisibility(View.GONE);
+		getActionBar().setSubtitle(null);
+		mContentLayout.addView(view);
 	}
 	
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
-		if (mDeleteWhenDone) {
-			mJsonFile.delete();
+		mLoader.cancel();
+		// The writes report to the activity that replaces this one, if any
+		if (mDumpWrite != null) {
+			mDumpWrite.activity = null;
+		}
+		if (mExportWrite != null) {
+			mExportWrite.activity = null;
+		}
+		if (mHandoffRoot != null && isChangingConfigurations()) {
+			// Keep the tree for the activity that replaces this one
+			ExplainHandoff.pin(mHandoffToken, mHandoffRoot);
+		}
+		// The dump is still needed by the activity that replaces this one on a configuration change
+		if (mDeleteWhenDone && mJsonFile != null && isFinishing() && !isChangingConfigurations()) {
+			// A dump that is not being written yet is not written at all, and one that is being written
+			// is deleted once it's done
+			if (mDumpWrite != null) {
+				mDumpWrite.future.cancel(false);
+			}
+			ExplainDumpWriter.deleteAsync(mJsonFile);
+			if (mExportWrite != null) {
+				mExportWrite.future.cancel(false);
+				ExplainDumpWriter.deleteAsync(mExportWrite.file);
+			}
+			ExplainTreeCache.invalidate(mJsonFile);
 		}
 	}	
 	
@@ -262,8 +576,71 @@ public class ExplainActivity extends Activity {
 	    // Inflate the menu items for use in the action bar
 	    MenuInflater inflater = getMenuInflater();
 	    inflater.inflate(R.menu.menu_plaxien_activity_actions, menu);
+
+	    // Search is available once the tree is indexed, or once a lazy tree is loaded, as it's indexed when searched
+	    MenuItem searchItem = menu.findItem(R.id.action_search);
+	    searchItem.setVisible(mSearchIndex != null || (mRoot != null && mLoader.isLazy()));
+	    // There is nothing to share once the handed off tree is gone
+	    menu.findItem(R.id.action_share).setVisible(!mTreeUnavailable);
+	    SearchView searchView = (SearchView) searchItem.getActionView();
+	    searchView.setQueryHint(getString(R.string.action_search_name));
+	    searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+	        @Override
+	        public boolean onQueryTextSubmit(String query) {
+	            search(query);
+	            return true;
+	        }
+
+	        @Override
+	        public boolean onQueryTextChange(String query) {
+	            search(query);
+	            return true;
+	        }
+	    });
 	    return super.onCreateOptionsMenu(menu);
 	}
+
+	/**
+	 * Filter the tree to the nodes matching a query. The index is searched in the background,
+	 * and the results of a search are dropped if another one started meanwhile
+	 */
+	private void search(final String query) {
+		mSearchQuery = query;
+		final int generation = ++mSearchGeneration;
+		final ExplainSearchIndex index = mSearchIndex;
+		if (index == null || mTreeAdapter == null) {
+			// The search is run again once the tree is indexed
+			if (mTreeAdapter != null && query.length() > 0 && mLoader.isLazy()) {
+				mLoader.index();
+				getActionBar().setSubtitle(getString(R.string.progress_indexing));
+			}
+			return;
+		}
+
+		if (query.length() == 0) {
+			mTreeAdapter.clearFilter();
+			getActionBar().setSubtitle(null);
+			return;
+		}
+
+		sSearchExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final int[] matches = index.search(query);
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						if (generation != mSearchGeneration || isFinishing()) {
+							return;
+						}
+						int shown = Math.min(matches.length, MAX_SHOWN_MATCHES);
+						mTreeAdapter.setFilter(index, Arrays.copyOf(matches, shown));
+						getActionBar().setSubtitle(getString(R.string.search_matches, matches.length));
+					}
+				});
+			}
+		});
+	}
 	
 	@Override
 	public boolean onOptionsItemSelected(MenuItem item) {
@@ -275,6 +652,39 @@ public class ExplainActivity extends Activity {
 	}
 	
 	private void handleShare() {
+		if (mHandoffToken == null) {
+			share(mJsonFile);
+			return;
+		}
+		// A handed off tree is exported to JSON when it's first shared, and the export is shared once it's written.
+		// Until the tree is loaded back from its dump after the process restarted, there is nothing to export
+		if (mExportWrite == null) {
+			if (mRoot == null) {
+				return;
+			}
+			mExportWrite = new DumpWrite(this, exportFile(mJsonFile));
+			mExportWrite.future = ExplainDumpWriter.writeAsync(mRoot, mExportWrite.file, ExplainDumpWriter.FORMAT_JSON,
+					mExportWrite);
+		}
+		if (mExportWrite.writing) {
+			mExportWrite.shareWhenWritten = true;
+			return;
+		}
+		share(mExportWrite.file);
+	}
+
+	/**
+	 * Whether a dump is compressed, by its content - it may be named either way when it's not written by us
+	 */
+	private static boolean isCompressedDump(File file) {
+		try {
+			return ExplainDumpCompression.isCompressed(file);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private void share(File file) {
 		Intent intent = new Intent(Intent.ACTION_SEND);
 		String android_id = Secure.getString(getContentResolver(), Secure.ANDROID_ID);
 		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm");
@@ -288,8 +698,8 @@ public class ExplainActivity extends Activity {
 		intent.putExtra(Intent.EXTRA_SUBJECT, subject);
 		intent.putExtra(Intent.EXTRA_TEXT, text);
 
-		intent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(mJsonFile));
-		intent.setType("application/file");
+		intent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(file));
+		intent.setType(isCompressedDump(file) ? "application/gzip" : "application/file");
 
 		startActivity(Intent.createChooser(intent, "Share explain dump to..."));
 	}
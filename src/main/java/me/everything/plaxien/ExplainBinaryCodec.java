@@ -0,0 +1,468 @@
+package me.everything.plaxien;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A compact binary format for internally serialized explain trees.
+ *
+ * The file starts with a magic header and a version byte, followed by the root node. Every node starts with
+ * a tag byte holding its type and flags, then its title. Branch nodes continue with a varint child count
+ * and their children, value nodes with the value's string and an optional click uri.
+ *
+ * Strings are written as a varint reference: 0 is null, 1 is an inline string, 2 is an inline string that
+ * is also added to the string table, and anything above refers to an earlier table entry.
+ * This way repeated titles and short values are written only once.
+ *
+ * Since version 2, subtrees shared by several parents (see {@link ExplainCompactor}) are written once as well.
+ * The first occurrence of a shared node is flagged, and adds it to a table of shared nodes. Later occurrences
+ * are written as a ref tag followed by the varint index of the node in that table.
+ */
+class ExplainBinaryCodec {
+
+    static final byte[] MAGIC = {'P', 'L', 'X', 'B'};
+    static final int VERSION = 2;
+    // Version 1 dumps are the same, without shared nodes
+    static final int MIN_VERSION = 1;
+
+    static final int TAG_NODE = 0x01;
+    static final int TAG_VALUE = 0x02;
+    static final int TAG_REF = 0x03;
+    static final int TAG_TYPE_MASK = 0x0f;
+    static final int FLAG_EXPANDED = 0x10;
+    static final int FLAG_URI = 0x20;
+    static final int FLAG_SHARED = 0x40;
+
+    static final int STRING_NULL = 0;
+    static final int STRING_INLINE = 1;
+    static final int STRING_DEFINE = 2;
+    static final int STRING_REF_BASE = 3;
+
+    // Longer strings are rarely repeated, so there is no point in keeping them in the table
+    static final int MAX_TABLE_STRING_LENGTH = StringDictionary.DEFAULT_MAX_LENGTH;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Check whether a file holds a binary explain tree, by its magic header
+     */
+    static boolean isBinary(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] header = new byte[MAGIC.length];
+            int read = 0;
+            while (read < header.length) {
+                int n = in.read(header, read, header.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (header[i] != MAGIC[i]) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Check whether a stream holds a binary explain tree, by its magic header. The stream is reset
+     * to where it was, so it must support mark and reset
+     */
+    static boolean isBinary(InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        try {
+            for (byte b : MAGIC) {
+                if (in.read() != (b & 0xff)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Check whether a buffer holds a binary explain tree, by its magic header
+     */
+    static boolean isBinary(ByteBuffer buffer) {
+        if (buffer.remaining() < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(buffer.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write a tree to a file through a buffered channel
+     */
+    static void write(Explain.Node root, File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            write(root, out.getChannel());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write a tree to a stream, e.g. a compressing one. The stream is not closed
+     */
+    static void write(Explain.Node root, OutputStream out) throws IOException {
+        write(root, Channels.newChannel(out));
+        out.flush();
+    }
+
+    static void write(Explain.Node root, WritableByteChannel channel) throws IOException {
+        Writer writer = new Writer(channel);
+        writer.writeHeader();
+        writer.findShared(root);
+        writer.writeNode(root);
+        writer.flush();
+    }
+
+    /**
+     * Read a tree from a file, by memory mapping it
+     */
+    static Explain.Node read(File file) throws IOException {
+        return read(ExplainDumpReader.map(file));
+    }
+
+    /**
+     * Read a tree from a buffer holding a binary dump
+     */
+    static Explain.Node read(ByteBuffer buffer) throws IOException {
+        return read(new Reader(buffer));
+    }
+
+    /**
+     * Read a tree from a stream holding a binary dump, e.g. a decompressed one. The stream is read through
+     * a small buffer, so the dump is never held in memory whole
+     */
+    static Explain.Node read(InputStream in) throws IOException {
+        return read(new Reader(in));
+    }
+
+    static Explain.Node read(Reader reader) throws IOException {
+        reader.readHeader();
+        Explain.BaseNode root = reader.readNode();
+        if (root == null || root.type != Explain.BaseNode.NODE) {
+            throw new IOException("Binary explain root is not a node");
+        }
+        return (Explain.Node) root;
+    }
+
+    static class Writer {
+        final WritableByteChannel mChannel;
+        final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        final HashMap<String, Integer> mStrings = new HashMap<String, Integer>();
+        // The number of parents of each frozen node, and then the table index of each shared one
+        final IdentityHashMap<Explain.Node, Integer> mParents = new IdentityHashMap<Explain.Node, Integer>();
+        final IdentityHashMap<Explain.Node, Integer> mShared = new IdentityHashMap<Explain.Node, Integer>();
+
+        Writer(WritableByteChannel channel) {
+            mChannel = channel;
+        }
+
+        void writeHeader() throws IOException {
+            writeBytes(MAGIC, 0, MAGIC.length);
+            writeByte(VERSION);
+        }
+
+        /**
+         * Find the frozen nodes that occur more than once in a tree. Each of them is visited once
+         */
+        void findShared(Explain.Node node) {
+            if (node.frozen) {
+                Integer parents = mParents.get(node);
+                mParents.put(node, parents == null ? 1 : parents + 1);
+                if (parents != null) {
+                    return;
+                }
+            }
+            for (Explain.BaseNode child : node.getChildren()) {
+                if (child.type == Explain.BaseNode.NODE) {
+                    findShared((Explain.Node) child);
+                }
+            }
+        }
+
+        boolean isShared(Explain.Node node) {
+            Integer parents = node.frozen ? mParents.get(node) : null;
+            return parents != null && parents > 1;
+        }
+
+        void writeNode(Explain.BaseNode node) throws IOException {
+            if (node.type == Explain.BaseNode.NODE) {
+                Explain.Node branch = (Explain.Node) node;
+                boolean shared = isShared(branch);
+                if (shared) {
+                    Integer ref = mShared.get(branch);
+                    if (ref != null) {
+                        writeByte(TAG_REF);
+                        writeVarint(ref);
+                        return;
+                    }
+                    mShared.put(branch, mShared.size());
+                }
+
+                List<Explain.BaseNode> children = branch.getChildren();
+                writeByte(TAG_NODE | (branch.expanded ? FLAG_EXPANDED : 0) | (shared ? FLAG_SHARED : 0));
+                writeString(branch.title);
+                writeVarint(children.size());
+                for (Explain.BaseNode child : children) {
+                    writeNode(child);
+                }
+            } else {
+                Explain.ValueNode value = (Explain.ValueNode) node;
+
+                writeByte(TAG_VALUE | (value.onClickUri != null ? FLAG_URI : 0));
+                writeString(value.title);
+                writeString(value.getValue() != null ? value.toString() : null);
+                if (value.onClickUri != null) {
+                    writeString(value.onClickUri);
+                }
+            }
+        }
+
+        void writeString(String s) throws IOException {
+            if (s == null) {
+                writeVarint(STRING_NULL);
+                return;
+            }
+
+            Integer index = mStrings.get(s);
+            if (index != null) {
+                writeVarint(STRING_REF_BASE + index);
+                return;
+            }
+
+            if (s.length() <= MAX_TABLE_STRING_LENGTH) {
+                mStrings.put(s, mStrings.size());
+                writeVarint(STRING_DEFINE);
+            } else {
+                writeVarint(STRING_INLINE);
+            }
+
+            byte[] bytes = s.getBytes("UTF-8");
+            writeVarint(bytes.length);
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        void writeVarint(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        void writeByte(int b) throws IOException {
+            if (!mBuffer.hasRemaining()) {
+                flush();
+            }
+            mBuffer.put((byte) b);
+        }
+
+        void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!mBuffer.hasRemaining()) {
+                    flush();
+                }
+                int n = Math.min(length, mBuffer.remaining());
+                mBuffer.put(bytes, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+
+        void flush() throws IOException {
+            mBuffer.flip();
+            while (mBuffer.hasRemaining()) {
+                mChannel.write(mBuffer);
+            }
+            mBuffer.clear();
+        }
+    }
+
+    static class Reader {
+        final ByteBuffer mBuffer;
+        // The stream the buffer is refilled from, or null if the buffer holds the whole dump
+        final InputStream mIn;
+        final ArrayList<String> mStrings = new ArrayList<String>();
+        final ArrayList<Explain.Node> mShared = new ArrayList<Explain.Node>();
+
+        Reader(ByteBuffer buffer) {
+            mBuffer = buffer;
+            mIn = null;
+        }
+
+        Reader(InputStream in) {
+            mBuffer = ByteBuffer.allocate(ExplainDumpCompression.BUFFER_SIZE);
+            mBuffer.limit(0);
+            mIn = in;
+        }
+
+        /**
+         * Make sure the buffer holds at least the given number of bytes, refilling it from the stream if needed
+         * @param count the number of bytes, at most the buffer's capacity
+         */
+        void require(int count) throws IOException {
+            if (mBuffer.remaining() >= count) {
+                return;
+            }
+            if (mIn == null) {
+                throw new IOException("Truncated binary explain dump");
+            }
+            mBuffer.compact();
+            try {
+                while (mBuffer.position() < count) {
+                    int n = mIn.read(mBuffer.array(), mBuffer.position(), mBuffer.remaining());
+                    if (n < 0) {
+                        throw new IOException("Truncated binary explain dump");
+                    }
+                    mBuffer.position(mBuffer.position() + n);
+                }
+            } finally {
+                mBuffer.flip();
+            }
+        }
+
+        byte readByte() throws IOException {
+            if (!mBuffer.hasRemaining()) {
+                require(1);
+            }
+            return mBuffer.get();
+        }
+
+        void readHeader() throws IOException {
+            for (byte b : MAGIC) {
+                if (readByte() != b) {
+                    throw new IOException("Not a binary explain dump");
+                }
+            }
+            int version = readByte();
+            if (version < MIN_VERSION || version > VERSION) {
+                throw new IOException("Unsupported binary explain version: " + version);
+            }
+        }
+
+        Explain.BaseNode readNode() throws IOException {
+            int tag = readByte() & 0xff;
+
+            switch (tag & TAG_TYPE_MASK) {
+                case TAG_NODE: {
+                    Explain.Node node = new Explain.Node(readString(), null, (tag & FLAG_EXPANDED) != 0);
+                    boolean shared = (tag & FLAG_SHARED) != 0;
+                    if (shared) {
+                        mShared.add(node);
+                    }
+                    int count = readVarint();
+                    ChildList children = new ChildList(count);
+                    for (int i = 0; i < count; i++) {
+                        children.add(readNode());
+                    }
+                    // Child lists are read at their exact size, so packing the leaves is all that's left.
+                    // It's done as each node is read, since shared nodes can't be trimmed once frozen
+                    children.pack();
+                    node.children = children;
+                    node.frozen = shared;
+                    return node;
+                }
+                case TAG_REF: {
+                    int ref = readVarint();
+                    if (ref >= mShared.size()) {
+                        throw new IOException("Invalid binary explain ref: " + ref);
+                    }
+                    return mShared.get(ref);
+                }
+                case TAG_VALUE: {
+                    String title = readString();
+                    String value = readString();
+                    String onClickUri = (tag & FLAG_URI) != 0 ? readString() : null;
+                    return new Explain.ValueNode(title, value, onClickUri);
+                }
+                default:
+                    throw new IOException("Invalid binary explain tag: " + tag);
+            }
+        }
+
+        String readString() throws IOException {
+            int ref = readVarint();
+            if (ref == STRING_NULL) {
+                return null;
+            }
+            if (ref >= STRING_REF_BASE) {
+                return mStrings.get(ref - STRING_REF_BASE);
+            }
+
+            String s = decode(readVarint());
+            if (ref == STRING_DEFINE) {
+                mStrings.add(s);
+            }
+            return s;
+        }
+
+        String decode(int length) throws IOException {
+            if (mIn != null && length > mBuffer.capacity()) {
+                // Longer than the stream's buffer - read what's buffered, and the rest straight from the stream
+                byte[] bytes = new byte[length];
+                int n = mBuffer.remaining();
+                mBuffer.get(bytes, 0, n);
+                while (n < length) {
+                    int read = mIn.read(bytes, n, length - n);
+                    if (read < 0) {
+                        throw new IOException("Truncated binary explain dump");
+                    }
+                    n += read;
+                }
+                return new String(bytes, "UTF-8");
+            }
+
+            require(length);
+            String s;
+            if (mBuffer.hasArray()) {
+                s = new String(mBuffer.array(), mBuffer.arrayOffset() + mBuffer.position(), length, "UTF-8");
+                mBuffer.position(mBuffer.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                mBuffer.get(bytes);
+                s = new String(bytes, "UTF-8");
+            }
+            return s;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            int shift = 0;
+            while (true) {
+                int b = readByte() & 0xff;
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package me.everything.plaxien;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compacts explain trees with repeated content into DAGs, by hash-consing identical subtrees into a single
+ * shared instance. Server explains often repeat the same nested object under every result, and each copy
+ * only costs a reference once compacted.
+ *
+ * Subtrees are matched by their content hashes and then compared exactly, bottom-up, so comparing two nodes
+ * only compares their own titles and values and the identities of their already shared children.
+ * The compacted tree is frozen - adding to any of its nodes throws. Views still track the expansion of
+ * every occurrence of a shared node separately, and the binary dump format writes shared nodes once.
+ */
+public class ExplainCompactor {
+
+    private final HashMap<Long, List<Explain.BaseNode>> mCanonical = new HashMap<Long, List<Explain.BaseNode>>();
+    private int mShared;
+
+    /**
+     * Compact a tree in place
+     * @param root the root of the tree
+     * @return the root, whose subtrees are now shared wherever they repeat
+     */
+    public static Explain.Node compact(Explain.Node root) {
+        new ExplainCompactor().compactTree(root);
+        return root;
+    }
+
+    /**
+     * Compact a tree in place, sharing its subtrees with trees compacted before by this compactor
+     * @return the number of nodes that were replaced by a shared instance
+     */
+    public int compactTree(Explain.Node root) {
+        int shared = mShared;
+        root.trimToSize(true);
+        // Hash the whole tree once, up front. Replacing nodes with identical ones keeps the hashes valid
+        root.contentHash();
+        canonical(root);
+        return mShared - shared;
+    }
+
+    /**
+     * Get the shared instance of a node, after sharing its children
+     */
+    Explain.BaseNode canonical(Explain.BaseNode node) {
+        if (node.type == Explain.BaseNode.NODE && !((Explain.Node) node).frozen) {
+            Explain.Node branch = (Explain.Node) node;
+            // Packed lists hold nothing but plain values, which are not objects of their own
+            if (!(branch.children instanceof ChildList) || !((ChildList) branch.children).isPacked()) {
+                List<Explain.BaseNode> children = branch.getChildren();
+                for (int i = 0; i < children.size(); i++) {
+                    Explain.BaseNode child = children.get(i);
+                    Explain.BaseNode shared = canonical(child);
+                    if (shared != child) {
+                        ((ChildList) children).replace(i, shared);
+                    }
+                }
+            }
+            branch.frozen = true;
+        }
+
+        Long hash = node.contentHash();
+        List<Explain.BaseNode> candidates = mCanonical.get(hash);
+        if (candidates == null) {
+            candidates = new ArrayList<Explain.BaseNode>(1);
+            mCanonical.put(hash, candidates);
+        }
+        for (Explain.BaseNode candidate : candidates) {
+            if (sameContent(candidate, node)) {
+                if (candidate != node) {
+                    mShared++;
+                }
+                return candidate;
+            }
+        }
+        candidates.add(node);
+        return node;
+    }
+
+    /**
+     * Compare two nodes exactly. Their child nodes are already shared, so they are compared by identity
+     */
+    static boolean sameContent(Explain.BaseNode a, Explain.BaseNode b) {
+        if (a == b) {
+            return true;
+        }
+        if (a.getClass() != b.getClass() || !equal(a.title, b.title)) {
+            return false;
+        }
+
+        if (a.type == Explain.BaseNode.VALUE_NODE) {
+            Explain.ValueNode va = (Explain.ValueNode) a;
+            Explain.ValueNode vb = (Explain.ValueNode) b;
+            return equal(va.toString(), vb.toString()) && equal(va.onClickUri, vb.onClickUri);
+        }
+
+        Explain.Node na = (Explain.Node) a;
+        Explain.Node nb = (Explain.Node) b;
+        if (na.expanded != nb.expanded) {
+            return false;
+        }
+        List<Explain.BaseNode> ca = na.getChildren();
+        List<Explain.BaseNode> cb = nb.getChildren();
+        if (ca.size() != cb.size()) {
+            return false;
+        }
+        for (int i = 0; i < ca.size(); i++) {
+            Explain.BaseNode childA = ca.get(i);
+            Explain.BaseNode childB = cb.get(i);
+            if (childA.type == Explain.BaseNode.NODE ? childA != childB : !sameContent(childA, childB)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,257 @@
+package me.everything.plaxien;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A structural diff of two explain trees, e.g. the explain of the same query before and after a ranking change.
+ *
+ * The diff is itself an explain tree, made of {@link DiffNode}s and {@link DiffValueNode}s that are annotated with
+ * whether they were added, removed or changed, so it can be rendered by {@link ExplainViewFactory} like any other tree.
+ * Changed nodes are expanded, so the changes are visible when the diff is first shown.
+ *
+ * Children are matched by title, in order among children of the same title. Nameless values - the elements of
+ * JSON arrays of primitives, whose title is their value - are matched by position instead, and so are the
+ * "[n]" labelled elements of arrays of objects, by their labels. Every node is visited once, so the diff
+ * takes linear time, and subtrees whose content hashes are equal are not walked at all.
+ */
+public class ExplainDiff {
+
+    public static final int UNCHANGED = 0;
+    public static final int ADDED = 1;
+    public static final int REMOVED = 2;
+    public static final int CHANGED = 3;
+
+    static final String ARROW = " \u2192 ";
+
+    /**
+     * A node of a diff tree
+     */
+    public interface Annotated {
+        /**
+         * @return UNCHANGED, ADDED, REMOVED or CHANGED
+         */
+        public int getDiffState();
+    }
+
+    public static class DiffNode extends Explain.Node implements Annotated {
+        final int mState;
+
+        DiffNode(String title, int state) {
+            super(title, state == CHANGED);
+            mState = state;
+        }
+
+        @Override
+        public int getDiffState() {
+            return mState;
+        }
+    }
+
+    public static class DiffValueNode extends Explain.ValueNode implements Annotated {
+        final int mState;
+        // Set for changed values
+        final Object mOldValue;
+
+        DiffValueNode(Explain.ValueNode node, int state, Object oldValue) {
+            this(node.title, node.getValue(), node.onClickUri, state, oldValue);
+        }
+
+        DiffValueNode(String title, Object value, String onClickUri, int state, Object oldValue) {
+            super(title, value, onClickUri);
+            mState = state;
+            mOldValue = oldValue;
+        }
+
+        @Override
+        public int getDiffState() {
+            return mState;
+        }
+
+        /**
+         * @return the value before the change, for changed values
+         */
+        public Object getOldValue() {
+            return mOldValue;
+        }
+
+        @Override
+        public String toString() {
+            if (mState == CHANGED && !isNameless(this)) {
+                return String.valueOf(mOldValue) + ARROW + super.toString();
+            }
+            return super.toString();
+        }
+    }
+
+    /**
+     * Get the diff state of a node
+     * @return the state of a diff tree node, or UNCHANGED for any other node
+     */
+    public static int stateOf(Explain.BaseNode node) {
+        return node instanceof Annotated ? ((Annotated) node).getDiffState() : UNCHANGED;
+    }
+
+    /**
+     * Diff two trees
+     * @param before the old tree
+     * @param after the new tree
+     * @return the root of the diff tree, titled like the new tree's root
+     */
+    public static DiffNode diff(Explain.Node before, Explain.Node after) {
+        return diffNodes(before, after);
+    }
+
+    static DiffNode diffNodes(Explain.Node before, Explain.Node after) {
+        List<Explain.BaseNode> oldChildren = before.getChildren();
+        List<Explain.BaseNode> newChildren = after.getChildren();
+        int[] matches = match(oldChildren, newChildren);
+
+        List<Explain.BaseNode> children = new ArrayList<Explain.BaseNode>(Math.max(oldChildren.size(), newChildren.size()));
+        boolean[] matched = new boolean[oldChildren.size()];
+        for (int match : matches) {
+            if (match >= 0) {
+                matched[match] = true;
+            }
+        }
+
+        // Removed children are placed where they were, relative to the ones that are still there
+        int nextOld = 0;
+        boolean changed = false;
+        for (int i = 0; i < newChildren.size(); i++) {
+            Explain.BaseNode child = newChildren.get(i);
+            int match = matches[i];
+            if (match < 0) {
+                // A removed child in the same position is shown first, as if it was replaced
+                if (nextOld <= i && nextOld < oldChildren.size() && !matched[nextOld]) {
+                    children.add(copy(oldChildren.get(nextOld++), REMOVED));
+                }
+                children.add(copy(child, ADDED));
+                changed = true;
+                continue;
+            }
+
+            for (; nextOld < match; nextOld++) {
+                if (!matched[nextOld]) {
+                    children.add(copy(oldChildren.get(nextOld), REMOVED));
+                    changed = true;
+                }
+            }
+            nextOld = Math.max(nextOld, match + 1);
+
+            Explain.BaseNode diff = diffPair(oldChildren.get(match), child);
+            changed |= stateOf(diff) != UNCHANGED;
+            children.add(diff);
+        }
+        for (; nextOld < oldChildren.size(); nextOld++) {
+            if (!matched[nextOld]) {
+                children.add(copy(oldChildren.get(nextOld), REMOVED));
+                changed = true;
+            }
+        }
+
+        DiffNode ret = new DiffNode(after.title, changed ? CHANGED : UNCHANGED);
+        // Diff nodes are created at their exact size, since trimming the diff tree would also trim
+        // the subtrees it shares with the new tree
+        ret.children = new ChildList(children);
+        return ret;
+    }
+
+    /**
+     * Diff two matched children
+     */
+    static Explain.BaseNode diffPair(Explain.BaseNode before, Explain.BaseNode after) {
+        if (before.contentEquals(after)) {
+            // Identical subtrees are shared with the new tree rather than copied - plain nodes are unchanged
+            return after;
+        }
+        if (before.type != after.type) {
+            // A value that became a node or the other way around - show both
+            DiffNode ret = new DiffNode(after.title, CHANGED);
+            ret.children = new ChildList(Arrays.asList(copy(before, REMOVED), copy(after, ADDED)));
+            return ret;
+        }
+
+        if (after.type == Explain.BaseNode.NODE) {
+            return diffNodes((Explain.Node) before, (Explain.Node) after);
+        }
+
+        Explain.ValueNode oldValue = (Explain.ValueNode) before;
+        Explain.ValueNode newValue = (Explain.ValueNode) after;
+        if (isNameless(newValue)) {
+            // The value is in the title
+            if (equal(oldValue.title, newValue.title)) {
+                return new DiffValueNode(newValue, UNCHANGED, null);
+            }
+            return new DiffValueNode(oldValue.title + ARROW + newValue.title, "", newValue.onClickUri, CHANGED, oldValue.title);
+        }
+        if (oldValue.toString().equals(newValue.toString())) {
+            return new DiffValueNode(newValue, UNCHANGED, null);
+        }
+        return new DiffValueNode(newValue, CHANGED, oldValue.getValue());
+    }
+
+    /**
+     * Match the new children to the old ones
+     * @return for each new child, the index of its old match, or -1 if it was added
+     */
+    static int[] match(List<Explain.BaseNode> oldChildren, List<Explain.BaseNode> newChildren) {
+        HashMap<String, ArrayDeque<Integer>> byTitle = new HashMap<String, ArrayDeque<Integer>>();
+        ArrayDeque<Integer> nameless = new ArrayDeque<Integer>();
+
+        for (int i = 0; i < oldChildren.size(); i++) {
+            Explain.BaseNode child = oldChildren.get(i);
+            if (isNameless(child)) {
+                nameless.add(i);
+                continue;
+            }
+            ArrayDeque<Integer> indices = byTitle.get(child.title);
+            if (indices == null) {
+                indices = new ArrayDeque<Integer>();
+                byTitle.put(child.title, indices);
+            }
+            indices.add(i);
+        }
+
+        int[] matches = new int[newChildren.size()];
+        for (int i = 0; i < newChildren.size(); i++) {
+            Explain.BaseNode child = newChildren.get(i);
+            ArrayDeque<Integer> indices = isNameless(child) ? nameless : byTitle.get(child.title);
+            Integer match = indices != null ? indices.poll() : null;
+            matches[i] = match != null ? match : -1;
+        }
+        return matches;
+    }
+
+    static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Nameless values are added with {@link Explain.Node#addValue(Object)}, which keeps the value as the title
+     */
+    static boolean isNameless(Explain.BaseNode node) {
+        return node.type == Explain.BaseNode.VALUE_NODE && "".equals(((Explain.ValueNode) node).getValue());
+    }
+
+    /**
+     * Copy a whole subtree into the diff tree, with the same state all the way down
+     */
+    static Explain.BaseNode copy(Explain.BaseNode node, int state) {
+        if (node.type == Explain.BaseNode.VALUE_NODE) {
+            return new DiffValueNode((Explain.ValueNode) node, state, null);
+        }
+
+        List<Explain.BaseNode> children = ((Explain.Node) node).getChildren();
+        ChildList copies = new ChildList(children.size());
+        for (Explain.BaseNode child : children) {
+            copies.add(copy(child, state));
+        }
+        DiffNode ret = new DiffNode(node.title, state);
+        ret.children = copies;
+        return ret;
+    }
+}
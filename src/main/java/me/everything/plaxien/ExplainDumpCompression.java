@@ -0,0 +1,105 @@
+package me.everything.plaxien;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compression of dump files. Dumps are compressed when their file name ends with {@link #EXTENSION},
+ * and are recognized as compressed by the gzip magic bytes when read, whatever their name.
+ *
+ * Both directions are streamed through 64k buffers. Dumps are compressed at the fastest level - explain JSON
+ * is repetitive enough that it still shrinks several times over, and writing is not slowed down much.
+ */
+class ExplainDumpCompression {
+
+    static final String EXTENSION = ".gz";
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+
+    /**
+     * Check whether a dump written to a file should be compressed, by its name
+     */
+    static boolean shouldCompress(File file) {
+        return file.getName().endsWith(EXTENSION);
+    }
+
+    /**
+     * Check whether a file holds a gzip stream, by its magic bytes
+     */
+    static boolean isCompressed(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return in.read() == GZIP_MAGIC_1 && in.read() == GZIP_MAGIC_2;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Check whether a buffer holds a gzip stream, by its magic bytes
+     */
+    static boolean isCompressed(ByteBuffer buffer) {
+        int position = buffer.position();
+        return buffer.remaining() >= 2
+                && (buffer.get(position) & 0xff) == GZIP_MAGIC_1
+                && (buffer.get(position + 1) & 0xff) == GZIP_MAGIC_2;
+    }
+
+    /**
+     * Open a dump file for writing, compressing it if its name says so
+     * @return a buffered stream, which must be closed to finish the file
+     */
+    static OutputStream openOutput(File file) throws IOException {
+        return openOutput(file, shouldCompress(file));
+    }
+
+    /**
+     * Open a file for writing
+     * @param compressed whether to compress what is written
+     * @return a buffered stream, which must be closed to finish the file
+     */
+    static OutputStream openOutput(File file, boolean compressed) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        if (!compressed) {
+            return new BufferedOutputStream(out, BUFFER_SIZE);
+        }
+        try {
+            return compress(out);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Compress a stream. Small writes are buffered, so they don't each go through the deflater
+     */
+    static OutputStream compress(OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+        return new BufferedOutputStream(gzip, BUFFER_SIZE);
+    }
+
+    /**
+     * Decompress a stream
+     * @return a buffered stream, which supports mark and reset
+     */
+    static InputStream decompress(InputStream in) throws IOException {
+        return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+    }
+}
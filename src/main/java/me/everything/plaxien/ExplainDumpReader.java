@@ -0,0 +1,103 @@
+package me.everything.plaxien;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import me.everything.plaxien.json.ByteBufferInputStream;
+import me.everything.plaxien.json.JSONExplainBridge;
+
+/**
+ * Reads explain dump files by memory mapping them, and parsing straight from the mapped buffer.
+ * No String of the whole file is ever created - third party JSON is parsed lazily by offsets, so
+ * expanding a node only reads the region of the file holding that node.
+ *
+ * Compressed dumps can't be parsed by offsets, so they are decompressed and parsed as a stream instead,
+ * building the whole tree up front.
+ */
+class ExplainDumpReader {
+
+    /**
+     * Memory map a whole file for reading. The mapping stays valid after the file is closed or deleted
+     */
+    static ByteBuffer map(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a dump file into an explain tree
+     * @param file the dump file, or null for an empty explain
+     * @param rootTitle the title of the root node, for third party JSON
+     * @param internalSerialization true if the file holds an internally serialized tree, binary or JSON
+     * @return the root node of the tree
+     */
+    static Explain.Node read(File file, String rootTitle, boolean internalSerialization) throws IOException {
+        return parse(file != null ? map(file) : emptyDump(), rootTitle, internalSerialization);
+    }
+
+    /**
+     * @return a buffer holding an empty explain, for when there is no dump file
+     */
+    static ByteBuffer emptyDump() {
+        return ByteBuffer.wrap(new byte[]{'{', '}'});
+    }
+
+    /**
+     * Parse a mapped dump into an explain tree
+     * @param buffer the dump's contents
+     * @param rootTitle the title of the root node, for third party JSON
+     * @param internalSerialization true if the buffer holds an internally serialized tree, binary or JSON
+     * @return the root node of the tree
+     */
+    static Explain.Node parse(ByteBuffer buffer, String rootTitle, boolean internalSerialization) throws IOException {
+        if (ExplainDumpCompression.isCompressed(buffer)) {
+            return parse(ExplainDumpCompression.decompress(new ByteBufferInputStream(buffer)),
+                    rootTitle, internalSerialization);
+        }
+        if (!internalSerialization) {
+            return new JSONExplainBridge().parseLazy(buffer, rootTitle, true);
+        }
+
+        if (ExplainBinaryCodec.isBinary(buffer)) {
+            return ExplainBinaryCodec.read(buffer);
+        }
+
+        Explain.Node node = Explain.Node.fromJSON(
+                new BufferedReader(new InputStreamReader(new ByteBufferInputStream(buffer), "UTF-8")));
+        if (node == null) {
+            throw new IOException("Failed parsing internal explain JSON");
+        }
+        return node;
+    }
+
+    /**
+     * Parse a decompressed dump stream into an explain tree
+     * @param in the dump's contents, supporting mark and reset
+     */
+    static Explain.Node parse(InputStream in, String rootTitle, boolean internalSerialization) throws IOException {
+        if (!internalSerialization) {
+            return new JSONExplainBridge().parseJSON(in, rootTitle, true);
+        }
+
+        if (ExplainBinaryCodec.isBinary(in)) {
+            return ExplainBinaryCodec.read(in);
+        }
+
+        Explain.Node node = Explain.Node.fromJSON(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+        if (node == null) {
+            throw new IOException("Failed parsing internal explain JSON");
+        }
+        return node;
+    }
+}
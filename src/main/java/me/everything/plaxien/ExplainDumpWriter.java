@@ -0,0 +1,129 @@
+package me.everything.plaxien;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes explain dump files, either on the calling thread or on a background executor.
+ * Both formats are streamed to the file, so memory use does not grow with the size of the tree.
+ * Dumps whose file name ends with {@link ExplainDumpCompression#EXTENSION} are compressed as they are written.
+ */
+class ExplainDumpWriter {
+    private static final String TAG = "plaxien/ExplainDumpWriter";
+
+    static final int FORMAT_BINARY = 0;
+    static final int FORMAT_JSON = 1;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    interface Callback {
+        /** Called on the main thread once the dump is written */
+        void onWritten(File file);
+
+        /** Called on the main thread if writing the dump failed */
+        void onError(File file, IOException e);
+    }
+
+    /**
+     * Write a dump on the calling thread
+     * @param root the root of the tree
+     * @param file the dump file
+     * @param format FORMAT_BINARY or FORMAT_JSON
+     */
+    static void write(Explain.Node root, File file, int format) throws IOException {
+        // Written aside and then renamed, so that a dump is never read while it's half written
+        File temp = tempFile(file);
+        if (ExplainDumpCompression.shouldCompress(file)) {
+            writeCompressed(root, temp, format);
+        } else if (format == FORMAT_JSON) {
+            ExplainJsonWriter.write(root, temp);
+        } else {
+            ExplainBinaryCodec.write(root, temp);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed renaming dump file: " + temp);
+        }
+    }
+
+    static File tempFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * Delete a dump in the background, along with its temporary file. It's deleted after the writes that were
+     * started before are done, since a write that is still running would bring the dump back when it's renamed
+     */
+    static void deleteAsync(final File file) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                file.delete();
+                tempFile(file).delete();
+            }
+        });
+    }
+
+    static void writeCompressed(Explain.Node root, File file, int format) throws IOException {
+        // The name of the file is temporary, so it doesn't tell whether to compress
+        OutputStream out = ExplainDumpCompression.openOutput(file, true);
+        try {
+            if (format == FORMAT_JSON) {
+                Writer writer = new OutputStreamWriter(out, "UTF-8");
+                ExplainJsonWriter.write(root, writer);
+            } else {
+                ExplainBinaryCodec.write(root, out);
+            }
+        } finally {
+            // Closing finishes the compressed stream
+            out.close();
+        }
+    }
+
+    /**
+     * Write a dump in the background. The tree must not be modified until the callback is called
+     * @param root the root of the tree
+     * @param file the dump file
+     * @param format FORMAT_BINARY or FORMAT_JSON
+     * @param callback called on the main thread when done
+     * @return the pending write, which can be cancelled
+     */
+    static Future<?> writeAsync(final Explain.Node root, final File file, final int format, final Callback callback) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+
+        return sExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(root, file, format);
+                } catch (final IOException e) {
+                    Log.e(TAG, "Failed writing dump file: " + file, e);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onError(file, e);
+                        }
+                    });
+                    return;
+                }
+
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onWritten(file);
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package me.everything.plaxien;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Hands explain trees that are already in memory to {@link ExplainActivity} by a token, instead of
+ * serializing them into the launch intent's dump file.
+ *
+ * A tree is pinned from the moment it is handed off until the activity takes it, and from then on it is only
+ * weakly referenced, so it can be taken again while the activity still holds it. Only the last few unclaimed
+ * trees are pinned, so launches that never reach the activity don't keep their trees alive.
+ * Tokens don't survive the process - the activity reads its dump file instead in that case.
+ */
+class ExplainHandoff {
+
+    static final int MAX_PINNED = 4;
+    static final int MAX_TREES = 32;
+
+    static final LinkedHashMap<String, Explain.Node> sPinned = new LinkedHashMap<String, Explain.Node>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Explain.Node> eldest) {
+            return size() > MAX_PINNED;
+        }
+    };
+
+    private static final LinkedHashMap<String, WeakReference<Explain.Node>> sTrees =
+            new LinkedHashMap<String, WeakReference<Explain.Node>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, WeakReference<Explain.Node>> eldest) {
+            return size() > MAX_TREES || eldest.getValue().get() == null;
+        }
+    };
+
+    /**
+     * Hand off a tree
+     * @return the token the tree can be taken with
+     */
+    static synchronized String put(Explain.Node root) {
+        // Random, so a token from an intent that outlived its process never finds another tree
+        String token = UUID.randomUUID().toString();
+        pin(token, root);
+        return token;
+    }
+
+    /**
+     * Pin a tree again, e.g. while its activity is re-created
+     */
+    static synchronized void pin(String token, Explain.Node root) {
+        sPinned.put(token, root);
+        sTrees.put(token, new WeakReference<Explain.Node>(root));
+    }
+
+    /**
+     * Take a handed off tree. It is no longer pinned, so the caller must hold on to it
+     * @return the tree, or null if it's gone
+     */
+    static synchronized Explain.Node take(String token) {
+        Explain.Node root = sPinned.remove(token);
+        if (root != null) {
+            return root;
+        }
+        WeakReference<Explain.Node> ref = sTrees.get(token);
+        return ref != null ? ref.get() : null;
+    }
+}
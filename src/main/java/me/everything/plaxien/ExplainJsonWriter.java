@@ -0,0 +1,95 @@
+package me.everything.plaxien;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.util.List;
+
+/**
+ * Writes explain trees in the internal json representation, streaming the tree depth-first straight to
+ * the output. Unlike serializing through Gson, the document is never held in memory as a whole.
+ *
+ * The output is the same as Gson's - node fields are written in Gson's reflective order, html characters
+ * are escaped and null fields are left out - so it can be read back with {@link Explain.Node#fromJSON(String)}.
+ * Values other than numbers, booleans and strings are written as their toString(), rather than reflecting
+ * over arbitrary objects like Gson does, and lazy values are computed as they are written.
+ */
+class ExplainJsonWriter {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Write a tree to a file through a buffered channel
+     */
+    static void write(Explain.Node root, File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(Channels.newOutputStream(out.getChannel()), "UTF-8"), BUFFER_SIZE);
+            write(root, writer);
+            writer.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write a tree to a character stream. The stream is flushed but not closed
+     */
+    static void write(Explain.Node root, Writer out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setHtmlSafe(true);
+        // Like Gson, we don't fail on NaN and infinite values, which Gson can read back leniently
+        writer.setLenient(true);
+        writeNode(root, writer);
+        writer.flush();
+    }
+
+    static void writeNode(Explain.BaseNode node, JsonWriter writer) throws IOException {
+        writer.beginObject();
+        if (node.type == Explain.BaseNode.NODE) {
+            Explain.Node branch = (Explain.Node) node;
+            List<Explain.BaseNode> children = branch.getChildren();
+
+            writer.name("children");
+            writer.beginArray();
+            for (int i = 0; i < children.size(); i++) {
+                writeNode(children.get(i), writer);
+            }
+            writer.endArray();
+            writer.name("expanded").value(branch.expanded);
+        } else {
+            Explain.ValueNode value = (Explain.ValueNode) node;
+
+            Object v = value.getValue();
+            if (v != null) {
+                writer.name("value");
+                writeValue(v, writer);
+            }
+            if (value.onClickUri != null) {
+                writer.name("onClickUri").value(value.onClickUri);
+            }
+        }
+        if (node.title != null) {
+            writer.name("title").value(node.title);
+        }
+        writer.name("type").value(node.type);
+        writer.endObject();
+    }
+
+    static void writeValue(Object value, JsonWriter writer) throws IOException {
+        if (value instanceof Number) {
+            writer.value((Number) value);
+        } else if (value instanceof Boolean) {
+            writer.value(((Boolean) value).booleanValue());
+        } else {
+            writer.value(value.toString());
+        }
+    }
+}
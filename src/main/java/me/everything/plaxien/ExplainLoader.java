@@ -0,0 +1,282 @@
+package me.everything.plaxien;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads an explain dump in stages - read, then parse, then build views. The first two stages
+ * run on a background executor, and the listener is called on the main thread as each stage starts,
+ * and once the tree is ready to be rendered. After that the tree's search index is built in the background.
+ * Building the index loads the whole tree, so lazily parsed trees are only indexed when {@link #index()}
+ * is called, once they are first searched.
+ * The top levels of the tree are parsed eagerly in the background, so they can be rendered right away
+ * while deeper levels of lazy trees are only parsed when they are opened. Only third party JSON is parsed
+ * lazily - internally serialized dumps, binary or JSON, and compressed dumps are parsed in full before
+ * the tree is first shown.
+ * A loader of a tree that is already in memory only builds its search index.
+ * Indexed trees are kept in the {@link ExplainTreeCache} along with their indexes, so loading the same
+ * dump again just posts them.
+ */
+class ExplainLoader {
+    private static final String TAG = "plaxien/ExplainLoader";
+
+    static final int STAGE_READ = 0;
+    static final int STAGE_PARSE = 1;
+    static final int STAGE_BUILD = 2;
+
+    // How many levels of the tree to parse before it is first shown
+    static final int PRELOAD_DEPTH = 2;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    interface Listener {
+        /** Called on the main thread when a loading stage starts */
+        void onProgress(int stage);
+
+        /** Called on the main thread with the parsed tree */
+        void onLoaded(Explain.Node root);
+
+        /** Called on the main thread if reading or parsing failed */
+        void onError(Exception e);
+
+        /**
+         * Called on the main thread once the tree's search index is built, after it's loaded.
+         * Lazily parsed trees are only indexed once {@link #index()} is called
+         */
+        void onIndexed(ExplainSearchIndex index);
+    }
+
+    final File mFile;
+    final Explain.Node mRoot;
+    final String mRootTitle;
+    final boolean mInternalSerialization;
+    final Listener mListener;
+    final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    volatile boolean mCancelled;
+    Future<?> mFuture;
+    Future<?> mIndexFuture;
+
+    // Set once the tree is loaded, for indexing it later
+    volatile Explain.Node mLoadedRoot;
+    volatile ExplainTreeCache.Key mKey;
+    // Whether the tree was parsed lazily, so it's not indexed until index() is called
+    volatile boolean mLazy;
+
+    ExplainLoader(File file, String rootTitle, boolean internalSerialization, Listener listener) {
+        mFile = file;
+        mRoot = null;
+        mRootTitle = rootTitle;
+        mInternalSerialization = internalSerialization;
+        mListener = listener;
+    }
+
+    /**
+     * A loader of a tree that is already in memory. Only {@link Listener#onIndexed} is called
+     * @param lazy whether the tree was parsed lazily, and is only indexed once {@link #index()} is called
+     */
+    ExplainLoader(Explain.Node root, boolean lazy, Listener listener) {
+        mFile = null;
+        mRoot = root;
+        mRootTitle = root.title;
+        mInternalSerialization = true;
+        mListener = listener;
+        mLazy = lazy;
+    }
+
+    /**
+     * @return whether the tree was parsed lazily. Only valid once the tree is loaded
+     */
+    boolean isLazy() {
+        return mLazy;
+    }
+
+    /**
+     * Start loading in the background
+     */
+    void start() {
+        mFuture = sExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * Build the search index of a lazily parsed tree in the background, after it's loaded.
+     * Trees that are not lazy are indexed anyway, and only the first call has an effect
+     */
+    void index() {
+        if (!mLazy || mIndexFuture != null) {
+            return;
+        }
+        mIndexFuture = sExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                buildIndex();
+            }
+        });
+    }
+
+    /**
+     * Cancel loading. No listener callbacks are made after this is called
+     */
+    void cancel() {
+        mCancelled = true;
+        if (mFuture != null) {
+            mFuture.cancel(true);
+        }
+        if (mIndexFuture != null) {
+            mIndexFuture.cancel(true);
+        }
+        mHandler.removeCallbacksAndMessages(null);
+    }
+
+    void load() {
+        Explain.Node root = mRoot;
+        ExplainTreeCache.Key key = null;
+        if (root == null) {
+            // Taken before reading, so a file that changes meanwhile is not cached under its new key
+            key = mFile != null ? new ExplainTreeCache.Key(mFile) : null;
+            ExplainTreeCache.Entry cached = key != null ? ExplainTreeCache.get(key) : null;
+            if (cached != null) {
+                postProgress(STAGE_BUILD);
+                postLoaded(cached.root);
+                postIndexed(cached.index);
+                return;
+            }
+
+            root = read();
+            if (root == null) {
+                return;
+            }
+        }
+
+        mKey = key;
+        mLoadedRoot = root;
+        if (!mLazy) {
+            buildIndex();
+        }
+    }
+
+    void buildIndex() {
+        Explain.Node root = mLoadedRoot;
+        if (root == null || mCancelled) {
+            return;
+        }
+        // The tree is already shown, so a failure here only means there's no search
+        try {
+            ExplainSearchIndex index = ExplainSearchIndex.build(root);
+            if (index == null || mCancelled) {
+                return;
+            }
+            // Only fully loaded trees are cached - building the index loads all of it
+            if (mKey != null) {
+                ExplainTreeCache.put(mKey, root, index);
+            }
+            postIndexed(index);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed indexing explain: " + mFile, e);
+        }
+    }
+
+    /**
+     * Read and parse the dump file, and post the tree
+     * @return the tree, or null if it failed or was cancelled
+     */
+    Explain.Node read() {
+        Explain.Node root;
+        try {
+            postProgress(STAGE_READ);
+            ByteBuffer buffer = mFile != null ? ExplainDumpReader.map(mFile) : ExplainDumpReader.emptyDump();
+            if (mCancelled) {
+                return null;
+            }
+
+            postProgress(STAGE_PARSE);
+            root = ExplainDumpReader.parse(buffer, mRootTitle, mInternalSerialization);
+            mLazy = !root.isLoaded();
+            preload(root, PRELOAD_DEPTH);
+            if (mCancelled) {
+                return null;
+            }
+
+            postProgress(STAGE_BUILD);
+            postLoaded(root);
+            return root;
+        } catch (Exception e) {
+            if (mCancelled) {
+                return null;
+            }
+            Log.e(TAG, "Failed loading explain: " + mFile, e);
+            postError(e);
+            return null;
+        }
+    }
+
+    /**
+     * Load the children of the top levels of the tree, so that lazy nodes are not parsed on the main thread
+     */
+    void preload(Explain.Node node, int depth) {
+        if (depth == 0 || mCancelled) {
+            return;
+        }
+        for (Explain.BaseNode child : node.getChildren()) {
+            if (child.type == Explain.BaseNode.NODE) {
+                preload((Explain.Node) child, depth - 1);
+            }
+        }
+    }
+
+    void postProgress(final int stage) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled) {
+                    mListener.onProgress(stage);
+                }
+            }
+        });
+    }
+
+    void postLoaded(final Explain.Node root) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled) {
+                    mListener.onLoaded(root);
+                }
+            }
+        });
+    }
+
+    void postIndexed(final ExplainSearchIndex index) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled) {
+                    mListener.onIndexed(index);
+                }
+            }
+        });
+    }
+
+    void postError(final Exception e) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCancelled) {
+                    mListener.onError(e);
+                }
+            }
+        });
+    }
+}
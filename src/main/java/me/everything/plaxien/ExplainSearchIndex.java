@@ -0,0 +1,393 @@
+package me.everything.plaxien;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A case insensitive substring index over the titles and values of an explain tree.
+ *
+ * Every node in the tree gets an id by its preorder position, so sorted ids are in display order, and
+ * the index keeps the parent and position of each id so that matches can be traced back to their paths.
+ * Queries of three characters or more are answered from a trigram index and verified against the node's text,
+ * shorter ones scan the whole tree. A query that extends the previous one only looks at the previous results,
+ * so filtering narrows quickly as the user types.
+ *
+ * Building the index loads every lazy node, so it should be done in the background.
+ */
+class ExplainSearchIndex {
+
+    static final int GRAM_LENGTH = 3;
+
+    // Only the beginning of long values is indexed - they are always verified in full
+    static final int MAX_INDEXED_LENGTH = 128;
+
+    // A rough estimate of the memory each trigram takes besides its ids - its map entry, boxed key and postings
+    static final int ESTIMATED_GRAM_BYTES = 96;
+
+    /**
+     * A growable list of ids
+     */
+    static class Postings {
+        int[] ids = new int[2];
+        int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            }
+            ids[size++] = id;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+
+    final Explain.Node[] mBranches;
+    final int[] mParents;
+    final int[] mPositions;
+    final int[] mDepths;
+    // The id after the last one in each node's subtree
+    final int[] mEnds;
+    final int mSize;
+    final HashMap<Long, Postings> mGrams;
+    // Ids of nodes whose text may match beyond what is indexed, which are always verified - texts longer than
+    // what is indexed, and lazy values that were not computed yet, whose value may be searched once it is
+    final int[] mAlwaysVerified;
+    // The total length of all the texts, to estimate the memory the tree takes
+    final long mTextLength;
+
+    private String mLastQuery;
+    private int[] mLastResults;
+
+    private ExplainSearchIndex(Explain.Node[] branches, int[] parents, int[] positions, int[] depths, int[] ends, int size,
+                               HashMap<Long, Postings> grams, int[] alwaysVerified, long textLength) {
+        mBranches = branches;
+        mParents = parents;
+        mPositions = positions;
+        mDepths = depths;
+        mEnds = ends;
+        mSize = size;
+        mGrams = grams;
+        mAlwaysVerified = alwaysVerified;
+        mTextLength = textLength;
+    }
+
+    /**
+     * Build the index of a tree. The tree is walked with an explicit stack, so deep trees are fine
+     * @return the index, or null if the thread was interrupted while building it
+     */
+    static ExplainSearchIndex build(Explain.Node root) {
+        int capacity = 1024;
+        Explain.Node[] branches = new Explain.Node[capacity];
+        int[] parents = new int[capacity];
+        int[] positions = new int[capacity];
+        int[] depths = new int[capacity];
+        int[] ends = new int[capacity];
+        HashMap<Long, Postings> grams = new HashMap<Long, Postings>();
+        Postings alwaysVerified = new Postings();
+
+        // The stack holds ids of branches still being walked, and the next child position of each
+        int[] stack = new int[64];
+        int[] next = new int[64];
+        int top = 0;
+
+        branches[0] = root;
+        parents[0] = -1;
+        String rootText = text(root);
+        long textLength = rootText.length();
+        indexText(0, rootText, grams, alwaysVerified, false);
+        int size = 1;
+        stack[0] = 0;
+        next[0] = 0;
+
+        while (top >= 0) {
+            int parent = stack[top];
+            List<Explain.BaseNode> children = branches[parent].getChildren();
+            int position = next[top];
+            if (position >= children.size()) {
+                ends[parent] = size;
+                top--;
+                continue;
+            }
+            next[top]++;
+
+            if ((size & 0xfff) == 0 && Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+
+            if (size == capacity) {
+                capacity += capacity >> 1;
+                branches = Arrays.copyOf(branches, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                positions = Arrays.copyOf(positions, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+            }
+
+            int id = size++;
+            Explain.BaseNode child = children.get(position);
+            parents[id] = parent;
+            positions[id] = position;
+            depths[id] = depths[parent] + 1;
+            ends[id] = id + 1;
+            String text = text(child);
+            textLength += text.length();
+            indexText(id, text, grams, alwaysVerified, isPending(child));
+
+            if (child.type == Explain.BaseNode.NODE) {
+                branches[id] = (Explain.Node) child;
+                if (++top == stack.length) {
+                    stack = Arrays.copyOf(stack, top * 2);
+                    next = Arrays.copyOf(next, top * 2);
+                }
+                stack[top] = id;
+                next[top] = 0;
+            }
+        }
+
+        return new ExplainSearchIndex(branches, parents, positions, depths, ends, size, grams, alwaysVerified.toArray(),
+                textLength);
+    }
+
+    /**
+     * The searchable text of a node - its title, and its value for value nodes
+     */
+    static String text(Explain.BaseNode node) {
+        String title = node.title != null ? node.title : "";
+        if (node.type == Explain.BaseNode.NODE) {
+            return title;
+        }
+        // Searching does not force lazy values to be computed, but finds them by their value once they are
+        if (isPending(node)) {
+            return title;
+        }
+        // The separator can't be typed, so matches never span the title and the value
+        return title + '\n' + node.toString();
+    }
+
+    /**
+     * @return whether a node is a lazy value that is not computed yet, so only its title is searchable for now
+     */
+    static boolean isPending(Explain.BaseNode node) {
+        return node instanceof Explain.LazyValueNode && !((Explain.LazyValueNode) node).isComputed();
+    }
+
+    /**
+     * Index the grams of a node's text
+     * @param pending whether the text may change, so the node is always verified
+     */
+    static void indexText(int id, String text, HashMap<Long, Postings> grams, Postings alwaysVerified,
+                          boolean pending) {
+        int length = text.length();
+        if (length > MAX_INDEXED_LENGTH || pending) {
+            alwaysVerified.add(id);
+        }
+        if (length > MAX_INDEXED_LENGTH) {
+            length = MAX_INDEXED_LENGTH;
+        }
+        String lower = text.substring(0, length).toLowerCase(Locale.US);
+        for (int i = 0; i + GRAM_LENGTH <= lower.length(); i++) {
+            Long gram = gram(lower, i);
+            Postings postings = grams.get(gram);
+            if (postings == null) {
+                postings = new Postings();
+                grams.put(gram, postings);
+            }
+            postings.add(id);
+        }
+    }
+
+    static Long gram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    /**
+     * @return the number of nodes in the index
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return a rough estimate of the memory the trigram postings take
+     */
+    long estimateGramBytes() {
+        long bytes = 0;
+        for (Postings postings : mGrams.values()) {
+            bytes += ESTIMATED_GRAM_BYTES + postings.ids.length * 4L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the node of an id
+     */
+    Explain.BaseNode getNode(int id) {
+        if (mBranches[id] != null) {
+            return mBranches[id];
+        }
+        return mBranches[mParents[id]].getChildren().get(mPositions[id]);
+    }
+
+    int getParent(int id) {
+        return mParents[id];
+    }
+
+    int getDepth(int id) {
+        return mDepths[id];
+    }
+
+    /**
+     * Get the id that follows a node's subtree - the id of its next sibling, if it has one
+     */
+    int getEnd(int id) {
+        return mEnds[id];
+    }
+
+    /**
+     * Get the path of child positions leading from the root to a node
+     */
+    int[] getPath(int id) {
+        int[] path = new int[mDepths[id]];
+        for (int i = path.length - 1; i >= 0; i--) {
+            path[i] = mPositions[id];
+            id = mParents[id];
+        }
+        return path;
+    }
+
+    /**
+     * Find all the nodes whose title or value contain the query, ignoring case
+     * @param query the text to look for
+     * @return the matching ids, in display order
+     */
+    synchronized int[] search(String query) {
+        String lower = query.toLowerCase(Locale.US);
+        int[] results;
+
+        if (lower.length() == 0) {
+            results = new int[0];
+        } else if (mLastQuery != null && lower.contains(mLastQuery)) {
+            // Anything that matches the longer query also matched the previous one
+            results = verify(mLastResults, mLastResults.length, lower);
+        } else if (lower.length() < GRAM_LENGTH) {
+            results = scan(lower);
+        } else {
+            results = lookup(lower);
+        }
+
+        mLastQuery = lower.length() > 0 ? lower : null;
+        mLastResults = results;
+        return results;
+    }
+
+    int[] scan(String lower) {
+        Postings results = new Postings();
+        for (int id = 0; id < mSize; id++) {
+            if (matches(id, lower)) {
+                results.add(id);
+            }
+        }
+        return results.toArray();
+    }
+
+    int[] lookup(String lower) {
+        int gramCount = lower.length() - GRAM_LENGTH + 1;
+        Postings[] postings = new Postings[gramCount];
+        Postings rarest = null;
+        for (int i = 0; i < gramCount; i++) {
+            postings[i] = mGrams.get(gram(lower, i));
+            if (postings[i] == null) {
+                rarest = null;
+                break;
+            }
+            if (rarest == null || postings[i].size < rarest.size) {
+                rarest = postings[i];
+            }
+        }
+
+        // Intersect the postings of all the query's grams, starting from the rarest
+        int[] candidates = new int[0];
+        int count = 0;
+        if (rarest != null) {
+            candidates = rarest.toArray();
+            count = candidates.length;
+            for (int i = 0; i < gramCount && count > 0; i++) {
+                if (postings[i] != rarest) {
+                    count = intersect(candidates, count, postings[i].ids, postings[i].size);
+                }
+            }
+        }
+
+        // Long texts may match beyond their indexed prefix, and lazy values once they are computed
+        int[] merged = merge(candidates, count, mAlwaysVerified, mAlwaysVerified.length);
+        return verify(merged, merged.length, lower);
+    }
+
+    /**
+     * Intersect two sorted arrays into the first. The first array must not be shared
+     */
+    static int intersect(int[] a, int aSize, int[] b, int bSize) {
+        int i = 0, j = 0, k = 0;
+        while (i < aSize && j < bSize) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                a[k++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Merge two sorted arrays into a new one, without duplicates
+     */
+    static int[] merge(int[] a, int aSize, int[] b, int bSize) {
+        int[] out = new int[aSize + bSize];
+        int i = 0, j = 0, k = 0;
+        while (i < aSize || j < bSize) {
+            int v;
+            if (j == bSize || (i < aSize && a[i] < b[j])) {
+                v = a[i++];
+            } else if (i == aSize || b[j] < a[i]) {
+                v = b[j++];
+            } else {
+                v = a[i++];
+                j++;
+            }
+            out[k++] = v;
+        }
+        return Arrays.copyOf(out, k);
+    }
+
+    int[] verify(int[] candidates, int count, String lower) {
+        Postings results = new Postings();
+        for (int i = 0; i < count; i++) {
+            if (matches(candidates[i], lower)) {
+                results.add(candidates[i]);
+            }
+        }
+        return results.toArray();
+    }
+
+    boolean matches(int id, String lower) {
+        String text = text(getNode(id));
+        int last = text.length() - lower.length();
+        for (int i = 0; i <= last; i++) {
+            if (text.regionMatches(true, i, lower, 0, lower.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,718 @@
+package me.everything.plaxien;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * A list adapter that renders an explain tree as a flat list of visible rows.
+ * Only the rows on screen are inflated by the list, and expanding or collapsing a node
+ * inserts or removes the range of rows below it instead of rebuilding the subtree.
+ *
+ * Wide nodes are shown a page of children at a time, with rows that show the previous or next page.
+ * Rows are only created for the pages that were shown, so opening a node with 50k children,
+ * or jumping to its last child, costs as much as a single page.
+ */
+public class ExplainTreeAdapter extends BaseAdapter {
+
+    static final int ROW_TYPE_NODE = 0;
+    static final int ROW_TYPE_VALUE = 1;
+    static final int ROW_TYPE_MORE = 2;
+    static final int ROW_TYPE_DRAWN_VALUE = 3;
+
+    /**
+     * A single occurrence of a node in the tree. Rows keep their own expansion state, so that
+     * collapsing a parent and re-opening it brings back the subtrees the user had open.
+     */
+    static class Row {
+        final Explain.BaseNode node;
+        final int depth;
+        boolean expanded;
+
+        // Created the first time the row is expanded
+        List<Row> childRows;
+        // Whether the child rows are a range of the node's children starting at firstChild,
+        // rather than a filtered selection of them
+        boolean paged;
+        int firstChild;
+        // The node's id in the last restored expansion state, so that child rows created later are restored too.
+        // -1 if none of the node's descendants were expanded in it
+        int restoreId = -1;
+
+        Row(Explain.BaseNode node, int depth) {
+            this.node = node;
+            this.depth = depth;
+            if (node.type == Explain.BaseNode.NODE) {
+                expanded = ((Explain.Node) node).expanded;
+            }
+        }
+
+        /**
+         * A row that shows only some of its children
+         */
+        Row(Explain.BaseNode node, int depth, List<Row> childRows) {
+            this.node = node;
+            this.depth = depth;
+            this.childRows = childRows;
+            expanded = true;
+        }
+
+        List<Row> createRows(int start, int end) {
+            List<Row> rows = new ArrayList<Row>(end - start);
+            // Child lists are random access, so this does not walk the children before the start
+            ListIterator<Explain.BaseNode> children = ((Explain.Node) node).getChildren().listIterator(start);
+            for (int i = start; i < end; i++) {
+                rows.add(new Row(children.next(), depth + 1));
+            }
+            return rows;
+        }
+
+        int endChild() {
+            return firstChild + childRows.size();
+        }
+
+        boolean hasPrevious() {
+            return paged && firstChild > 0;
+        }
+
+        boolean hasNext() {
+            return paged && endChild() < ((Explain.Node) node).size();
+        }
+    }
+
+    /**
+     * A row that shows the previous or the next page of a paged row's children
+     */
+    static class MoreRow extends Row {
+        final Row parent;
+        final boolean previous;
+
+        MoreRow(Row parent, boolean previous) {
+            super(parent.node, parent.depth + 1);
+            this.parent = parent;
+            this.previous = previous;
+        }
+    }
+
+    ExplainViewFactory mFactory;
+    ArrayList<Row> mRows = new ArrayList<Row>();
+    int mIndent;
+    int mPageSize;
+    Row mRoot;
+    // The rows of the whole tree, kept aside while a filter is shown
+    ArrayList<Row> mUnfilteredRows;
+    // The expansion state restored last, and the search index it was saved with
+    ExplainSearchIndex mRestoreIndex;
+    long[] mRestoreBits;
+
+    public ExplainTreeAdapter(ExplainViewFactory factory, Explain.Node root) {
+        mFactory = factory;
+        mIndent = factory.mContext.getResources().getDimensionPixelSize(R.dimen.plaxien_tree_indent);
+        mPageSize = factory.mPageSize;
+
+        mRoot = new Row(root, 0);
+        mRows.add(mRoot);
+        if (mRoot.expanded) {
+            appendVisibleRows(mRoot, mRows);
+        }
+    }
+
+    /**
+     * Show only the given nodes and their ancestors. The ancestors are expanded to show just the path
+     * to the matches, while the matches themselves are collapsed and can be opened as usual.
+     * @param index the search index of the adapter's tree
+     * @param matches the ids of the nodes to show, in display order
+     */
+    public void setFilter(ExplainSearchIndex index, int[] matches) {
+        if (mUnfilteredRows == null) {
+            mUnfilteredRows = mRows;
+        }
+
+        // Ancestors come before their descendants in display order, so their rows are always created first
+        HashMap<Integer, Row> rows = new HashMap<Integer, Row>();
+        Row root = new Row(index.getNode(0), 0, new ArrayList<Row>());
+        rows.put(0, root);
+        for (int id : matches) {
+            addFilteredRow(index, id, rows);
+        }
+
+        mRows = new ArrayList<Row>();
+        mRows.add(root);
+        appendVisibleRows(root, mRows);
+        notifyDataSetChanged();
+    }
+
+    Row addFilteredRow(ExplainSearchIndex index, int id, HashMap<Integer, Row> rows) {
+        Row row = rows.get(id);
+        if (row != null) {
+            return row;
+        }
+
+        Row parent = addFilteredRow(index, index.getParent(id), rows);
+        Explain.BaseNode node = index.getNode(id);
+        row = new Row(node, parent.depth + 1);
+        // A matching node is shown collapsed, unless it turns out to be the ancestor of another match
+        row.expanded = false;
+        if (parent.childRows == null) {
+            parent.childRows = new ArrayList<Row>();
+            parent.expanded = true;
+        }
+        parent.childRows.add(row);
+        rows.put(id, row);
+        return row;
+    }
+
+    /**
+     * Show the whole tree again, as it was before the filter was set
+     */
+    public void clearFilter() {
+        if (mUnfilteredRows == null) {
+            return;
+        }
+        mRows = mUnfilteredRows;
+        mUnfilteredRows = null;
+        notifyDataSetChanged();
+    }
+
+    public boolean isFiltered() {
+        return mUnfilteredRows != null;
+    }
+
+    /**
+     * Get which nodes are expanded, as a bitset of their ids in the search index - their preorder positions
+     * in the tree. Only the rows that were created are walked, so this takes as long as the part of the tree
+     * the user has opened. Nodes inside collapsed ones keep their state too
+     * @return the bitset, packed into longs
+     */
+    public long[] getExpansionState(ExplainSearchIndex index) {
+        long[] bits = saveExpansion(mRoot, 0, index, new long[1]);
+        // Expanded nodes are usually near the top, so most of the bitset is empty
+        int length = bits.length;
+        while (length > 0 && bits[length - 1] == 0) {
+            length--;
+        }
+        return Arrays.copyOf(bits, length);
+    }
+
+    long[] saveExpansion(Row row, int id, ExplainSearchIndex index, long[] bits) {
+        if (row.expanded) {
+            int word = id >>> 6;
+            if (word >= bits.length) {
+                bits = Arrays.copyOf(bits, Math.max(word + 1, bits.length * 2));
+            }
+            bits[word] |= 1L << id;
+        }
+        if (row.childRows == null || !row.paged) {
+            return bits;
+        }
+
+        int childId = id + 1;
+        for (int i = 0; i < row.firstChild; i++) {
+            childId = index.getEnd(childId);
+        }
+        if (row.restoreId >= 0) {
+            // The children on pages that were never shown keep the state that was restored into them
+            bits = copyBits(mRestoreBits, id + 1, childId, bits);
+        }
+        for (Row child : row.childRows) {
+            bits = saveExpansion(child, childId, index, bits);
+            childId = index.getEnd(childId);
+        }
+        if (row.restoreId >= 0) {
+            bits = copyBits(mRestoreBits, childId, index.getEnd(id), bits);
+        }
+        return bits;
+    }
+
+    /**
+     * Set the bits of a range that are set in another bitset
+     * @return the bitset, grown if needed
+     */
+    static long[] copyBits(long[] from, int start, int end, long[] bits) {
+        for (int i = nextSetBit(from, start); i < end; i = nextSetBit(from, i + 1)) {
+            int word = i >>> 6;
+            if (word >= bits.length) {
+                bits = Arrays.copyOf(bits, Math.max(word + 1, bits.length * 2));
+            }
+            bits[word] |= 1L << i;
+        }
+        return bits;
+    }
+
+    /**
+     * Expand the nodes of a bitset saved by {@link #getExpansionState}, and collapse all the others.
+     * A node with expanded nodes in it opens at the page holding the first of them, and rows are only created
+     * for that page - the other pages are restored when they are shown. Any filter is cleared
+     * @param index the search index of the adapter's tree, the same as the state was saved with
+     */
+    public void setExpansionState(ExplainSearchIndex index, long[] bits) {
+        mRestoreIndex = index;
+        mRestoreBits = bits;
+        mRoot = new Row(mRoot.node, 0);
+        restoreExpansion(mRoot, 0);
+
+        mUnfilteredRows = null;
+        mRows = new ArrayList<Row>();
+        mRows.add(mRoot);
+        if (mRoot.expanded) {
+            appendVisibleRows(mRoot, mRows);
+        }
+        notifyDataSetChanged();
+    }
+
+    void restoreExpansion(Row row, int id) {
+        if (row.node.type != Explain.BaseNode.NODE) {
+            return;
+        }
+        row.expanded = isSet(mRestoreBits, id);
+        int next = nextSetBit(mRestoreBits, id + 1);
+        if (next >= mRestoreIndex.getEnd(id)) {
+            return;
+        }
+
+        // Find the child that holds the first expanded node, its subtree ends after that node's id
+        int first = 0;
+        int childId = id + 1;
+        for (int childEnd = mRestoreIndex.getEnd(childId); childEnd <= next; childEnd = mRestoreIndex.getEnd(childId)) {
+            childId = childEnd;
+            first++;
+        }
+
+        row.restoreId = id;
+        row.firstChild = first - first % mPageSize;
+        row.childRows = createRows(row, row.firstChild,
+                Math.min(row.firstChild + mPageSize, ((Explain.Node) row.node).size()));
+        row.paged = true;
+    }
+
+    /**
+     * Create the rows of a range of a row's children, with the expansion state restored into them, if any
+     */
+    List<Row> createRows(Row row, int start, int end) {
+        List<Row> rows = row.createRows(start, end);
+        if (row.restoreId >= 0) {
+            int childId = row.restoreId + 1;
+            for (int i = 0; i < start; i++) {
+                childId = mRestoreIndex.getEnd(childId);
+            }
+            for (Row child : rows) {
+                restoreExpansion(child, childId);
+                childId = mRestoreIndex.getEnd(childId);
+            }
+        }
+        return rows;
+    }
+
+    static boolean isSet(long[] bits, int i) {
+        int word = i >>> 6;
+        return word < bits.length && (bits[word] & (1L << i)) != 0;
+    }
+
+    /**
+     * @return the first set bit from i on, or Integer.MAX_VALUE if there is none
+     */
+    static int nextSetBit(long[] bits, int i) {
+        int word = i >>> 6;
+        if (word >= bits.length) {
+            return Integer.MAX_VALUE;
+        }
+        long w = bits[word] & (-1L << i);
+        while (true) {
+            if (w != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(w);
+            }
+            if (++word == bits.length) {
+                return Integer.MAX_VALUE;
+            }
+            w = bits[word];
+        }
+    }
+
+    /**
+     * Append all the visible descendants of an expanded row, in display order
+     */
+    void appendVisibleRows(Row row, List<Row> out) {
+        List<Row> childRows = getChildRows(row);
+        if (row.hasPrevious()) {
+            out.add(new MoreRow(row, true));
+        }
+        appendRows(childRows, out);
+        if (row.hasNext()) {
+            out.add(new MoreRow(row, false));
+        }
+    }
+
+    /**
+     * Get the child rows of a row, creating the page of rows at firstChild the first time
+     */
+    List<Row> getChildRows(Row row) {
+        if (row.childRows == null) {
+            int size = ((Explain.Node) row.node).size();
+            row.childRows = createRows(row, row.firstChild, Math.min(row.firstChild + mPageSize, size));
+            row.paged = true;
+        }
+        return row.childRows;
+    }
+
+    void appendRows(List<Row> rows, List<Row> out) {
+        for (Row row : rows) {
+            out.add(row);
+            if (row.expanded) {
+                appendVisibleRows(row, out);
+            }
+        }
+    }
+
+    /**
+     * Show the next or previous page of children in place of the "more" row at the given position
+     */
+    public void showMore(int position) {
+        Row row = mRows.get(position);
+        if (!(row instanceof MoreRow)) {
+            return;
+        }
+        MoreRow more = (MoreRow) row;
+        Row parent = more.parent;
+
+        List<Row> rows = new ArrayList<Row>();
+        if (more.previous) {
+            int start = Math.max(0, parent.firstChild - mPageSize);
+            List<Row> page = createRows(parent, start, parent.firstChild);
+            parent.childRows.addAll(0, page);
+            parent.firstChild = start;
+            if (parent.hasPrevious()) {
+                rows.add(new MoreRow(parent, true));
+            }
+            appendRows(page, rows);
+        } else {
+            int end = Math.min(parent.endChild() + mPageSize, ((Explain.Node) parent.node).size());
+            List<Row> page = createRows(parent, parent.endChild(), end);
+            parent.childRows.addAll(page);
+            appendRows(page, rows);
+            if (parent.hasNext()) {
+                rows.add(new MoreRow(parent, false));
+            }
+        }
+
+        mRows.remove(position);
+        mRows.addAll(position, rows);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Expand the node row at the given position to show one of its children. If the child is not shown yet,
+     * the node is re-opened at the page holding it, which takes as long as creating that page
+     * @param position the position of the node's row
+     * @param index the index of the child among the node's children
+     * @return the position of the child's row, or -1 if there is no such child
+     */
+    public int showChild(int position, int index) {
+        Row row = mRows.get(position);
+        if (row instanceof MoreRow || row.node.type != Explain.BaseNode.NODE
+                || index < 0 || index >= ((Explain.Node) row.node).size()) {
+            return -1;
+        }
+
+        boolean shown = row.paged && index >= row.firstChild && index < row.endChild();
+        if (!shown) {
+            if (row.expanded) {
+                toggle(position);
+            }
+            row.childRows = null;
+            row.paged = false;
+            row.firstChild = index - index % mPageSize;
+        }
+        if (!row.expanded) {
+            toggle(position);
+        }
+
+        // Skip over the rows of the children before it, and anything they show
+        Row child = row.childRows.get(index - row.firstChild);
+        int end = position + 1 + countVisibleDescendants(position);
+        for (int i = position + 1; i < end; i++) {
+            if (mRows.get(i) == child) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Count the rows currently displayed below a row at the given position
+     */
+    int countVisibleDescendants(int position) {
+        int depth = mRows.get(position).depth;
+        int end = position + 1;
+        while (end < mRows.size() && mRows.get(end).depth > depth) {
+            end++;
+        }
+        return end - position - 1;
+    }
+
+    /**
+     * Expand or collapse the node row at the given position
+     */
+    public void toggle(int position) {
+        Row row = mRows.get(position);
+        if (row instanceof MoreRow) {
+            showMore(position);
+            return;
+        }
+        if (row.node.type != Explain.BaseNode.NODE) {
+            return;
+        }
+
+        if (row.expanded) {
+            int count = countVisibleDescendants(position);
+            mRows.subList(position + 1, position + 1 + count).clear();
+            row.expanded = false;
+        } else {
+            List<Row> rows = new ArrayList<Row>();
+            appendVisibleRows(row, rows);
+            mRows.addAll(position + 1, rows);
+            row.expanded = true;
+        }
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return mRows.size();
+    }
+
+    @Override
+    public Explain.BaseNode getItem(int position) {
+        return mRows.get(position).node;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return 4;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        Row row = mRows.get(position);
+        if (row instanceof MoreRow) {
+            return ROW_TYPE_MORE;
+        }
+        if (row.node.type == Explain.BaseNode.NODE) {
+            return ROW_TYPE_NODE;
+        }
+        return mFactory.drawsValueRow((Explain.ValueNode) row.node) ? ROW_TYPE_DRAWN_VALUE : ROW_TYPE_VALUE;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        Row row = mRows.get(position);
+        switch (getItemViewType(position)) {
+            case ROW_TYPE_NODE:
+                return getNodeRowView(position, row, convertView, parent);
+            case ROW_TYPE_MORE:
+                return getMoreRowView(position, (MoreRow) row, convertView, parent);
+            case ROW_TYPE_DRAWN_VALUE:
+                return getDrawnValueRowView(row, convertView);
+            default:
+                return getValueRowView(row, convertView, parent);
+        }
+    }
+
+    View getNodeRowView(int position, Row row, View convertView, ViewGroup parent) {
+        NodeRowHolder holder;
+        if (convertView == null) {
+            convertView = mFactory.mInflater.inflate(R.layout.explain_node_row, parent, false);
+            holder = new NodeRowHolder(convertView);
+            convertView.setTag(holder);
+        } else {
+            holder = (NodeRowHolder) convertView.getTag();
+        }
+
+        Explain.Node node = (Explain.Node) row.node;
+        holder.position = position;
+        holder.titleView.setText(node.title);
+        holder.setDiffState(ExplainDiff.stateOf(node));
+        holder.numChildrenView.setText(mFactory.formatChildCount(
+                row.paged && row.expanded ? row.childRows.size() : node.size(), node.size()));
+        holder.icon.setImageResource(row.expanded ? R.drawable.arrow_up : R.drawable.arrow_down);
+        holder.indent(row.depth);
+
+        return convertView;
+    }
+
+    View getMoreRowView(int position, MoreRow row, View convertView, ViewGroup parent) {
+        MoreRowHolder holder;
+        if (convertView == null) {
+            convertView = mFactory.mInflater.inflate(R.layout.explain_more_row, parent, false);
+            holder = new MoreRowHolder(convertView);
+            convertView.setTag(holder);
+        } else {
+            holder = (MoreRowHolder) convertView.getTag();
+        }
+
+        Row paged = row.parent;
+        int count = row.previous ? paged.firstChild : ((Explain.Node) paged.node).size() - paged.endChild();
+        holder.position = position;
+        holder.labelView.setText(mFactory.formatMoreLabel(row.previous, Math.min(count, mPageSize)));
+        holder.indent(row.depth);
+
+        return convertView;
+    }
+
+    View getDrawnValueRowView(Row row, View convertView) {
+        RowHolder holder;
+        ValueRowView view;
+        if (convertView == null) {
+            view = new ValueRowView(mFactory.mContext, mFactory.getRowPaints());
+            holder = new RowHolder(view);
+            view.setTag(holder);
+        } else {
+            view = (ValueRowView) convertView;
+            holder = (RowHolder) view.getTag();
+        }
+
+        Explain.ValueNode node = (Explain.ValueNode) row.node;
+        view.bind(node, node.onClickUri != null ? mFactory.parseClickIntent(node) : null);
+        holder.indent(row.depth);
+
+        return view;
+    }
+
+    View getValueRowView(Row row, View convertView, ViewGroup parent) {
+        ValueRowHolder holder;
+        if (convertView == null) {
+            convertView = mFactory.mInflater.inflate(R.layout.explain_value, parent, false);
+            holder = new ValueRowHolder(convertView);
+            convertView.setTag(holder);
+        } else {
+            holder = (ValueRowHolder) convertView.getTag();
+        }
+
+        Explain.ValueNode node = (Explain.ValueNode) row.node;
+        holder.titleView.setText(node.title);
+        holder.valueView.setText(node.toString());
+        holder.setDiffState(ExplainDiff.stateOf(node));
+        holder.indent(row.depth);
+
+        // Recycled rows must not keep the click target of the node they showed before. Removing a listener
+        // doesn't make a view unclickable, so that is reset separately
+        View.OnClickListener listener = node.onClickUri != null ? mFactory.createClickListener(node) : null;
+        for (View v : new View[] {holder.view, holder.titleView, holder.valueView}) {
+            v.setOnClickListener(listener);
+            v.setClickable(listener != null);
+        }
+
+        return convertView;
+    }
+
+    /**
+     * Base holder that indents a recycled row according to its depth
+     */
+    class RowHolder {
+        View view;
+        int paddingLeft;
+        int diffState = ExplainDiff.UNCHANGED;
+
+        RowHolder(View view) {
+            this.view = view;
+            paddingLeft = view.getPaddingLeft();
+        }
+
+        void indent(int depth) {
+            view.setPadding(paddingLeft + depth * mIndent, view.getPaddingTop(),
+                    view.getPaddingRight(), view.getPaddingBottom());
+        }
+
+        /**
+         * Restyle the row for the diff state of its node, if it differs from the previous node's
+         */
+        void setDiffState(int state) {
+            if (state != diffState) {
+                applyStyles(state);
+                diffState = state;
+            }
+        }
+
+        void applyStyles(int state) {
+        }
+    }
+
+    class NodeRowHolder extends RowHolder {
+        TextView titleView;
+        TextView numChildrenView;
+        ImageView icon;
+        int position;
+
+        NodeRowHolder(View view) {
+            super(view);
+            titleView = (TextView) view.findViewById(R.id.node_title);
+            mFactory.mExplainViewStyle.applyNodeNameStyle(titleView);
+            numChildrenView = (TextView) view.findViewById(R.id.node_num_children);
+            mFactory.mExplainViewStyle.applyNodeCounterStyle(numChildrenView);
+            icon = (ImageView) view.findViewById(R.id.node_icon);
+
+            view.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    toggle(position);
+                }
+            });
+        }
+
+        @Override
+        void applyStyles(int state) {
+            mFactory.mExplainViewStyle.applyNodeNameStyle(titleView);
+            mFactory.mExplainViewStyle.applyDiffStyle(titleView, state);
+        }
+    }
+
+    class MoreRowHolder extends RowHolder {
+        TextView labelView;
+        int position;
+
+        MoreRowHolder(View view) {
+            super(view);
+            labelView = (TextView) view;
+
+            view.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    showMore(position);
+                }
+            });
+        }
+    }
+
+    class ValueRowHolder extends RowHolder {
+        TextView titleView;
+        TextView valueView;
+
+        ValueRowHolder(View view) {
+            super(view);
+            titleView = (TextView) view.findViewById(R.id.vname);
+            mFactory.mExplainViewStyle.applyValueNameStyle(titleView);
+            valueView = (TextView) view.findViewById(R.id.vvalue);
+            mFactory.mExplainViewStyle.applyValueStyle(valueView);
+        }
+
+        @Override
+        void applyStyles(int state) {
+            mFactory.mExplainViewStyle.applyValueNameStyle(titleView);
+            mFactory.mExplainViewStyle.applyDiffStyle(titleView, state);
+            mFactory.mExplainViewStyle.applyValueStyle(valueView);
+            mFactory.mExplainViewStyle.applyDiffStyle(valueView, state);
+        }
+    }
+}
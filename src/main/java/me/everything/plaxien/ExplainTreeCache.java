@@ -0,0 +1,169 @@
+package me.everything.plaxien;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A process-wide cache of parsed explain trees and their search indexes, so that reopening the same dump -
+ * after a rotation, or from the same debug link - doesn't read and parse it again.
+ *
+ * Trees are keyed by the path, modification time and length of their dump file, so a dump that is rewritten
+ * is parsed again. The least recently used trees are evicted once their estimated size exceeds the budget,
+ * and the cache shrinks or empties when the system is low on memory.
+ */
+class ExplainTreeCache {
+
+    static final long DEFAULT_BUDGET = 16 * 1024 * 1024;
+
+    // A rough estimate of the memory a node takes with its strings and its entries in the index arrays,
+    // not counting its text. The trigram postings are estimated by the index
+    static final int ESTIMATED_NODE_BYTES = 120;
+    static final int ESTIMATED_CHAR_BYTES = 2;
+
+    static class Key {
+        final String path;
+        final long modified;
+        final long length;
+
+        Key(File file) {
+            path = file.getAbsolutePath();
+            modified = file.lastModified();
+            length = file.length();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return path.equals(other.path) && modified == other.modified && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = path.hashCode();
+            h = 31 * h + (int) (modified ^ (modified >>> 32));
+            return 31 * h + (int) (length ^ (length >>> 32));
+        }
+    }
+
+    static class Entry {
+        final Explain.Node root;
+        final ExplainSearchIndex index;
+        final long weight;
+
+        Entry(Explain.Node root, ExplainSearchIndex index) {
+            this.root = root;
+            this.index = index;
+            weight = (long) index.size() * ESTIMATED_NODE_BYTES + index.mTextLength * ESTIMATED_CHAR_BYTES
+                    + index.estimateGramBytes();
+        }
+    }
+
+    // In access order, so the eldest entry is the least recently used
+    private static final LinkedHashMap<Key, Entry> sEntries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private static long sBudget = DEFAULT_BUDGET;
+    private static long sWeight;
+    private static boolean sRegistered;
+
+    /**
+     * Set the estimated number of bytes the cached trees may take, evicting trees if needed
+     */
+    static synchronized void setBudget(long bytes) {
+        sBudget = bytes;
+        evict(sBudget);
+    }
+
+    /**
+     * Let the cache shrink when the system is low on memory. Only the first call registers
+     */
+    static synchronized void register(Context context) {
+        if (sRegistered) {
+            return;
+        }
+        sRegistered = true;
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trimMemory(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+        });
+    }
+
+    /**
+     * Get the cached tree of a dump file
+     * @return the tree and its index, or null if the file is not cached as it is now
+     */
+    static synchronized Entry get(Key key) {
+        return sEntries.get(key);
+    }
+
+    static synchronized void put(Key key, Explain.Node root, ExplainSearchIndex index) {
+        Entry entry = new Entry(root, index);
+        // A tree that doesn't fit on its own would only evict all the others
+        if (entry.weight > sBudget) {
+            return;
+        }
+        Entry old = sEntries.put(key, entry);
+        if (old != null) {
+            sWeight -= old.weight;
+        }
+        sWeight += entry.weight;
+        evict(sBudget);
+    }
+
+    /**
+     * Drop all the trees of a dump file, e.g. once it's deleted
+     */
+    static synchronized void invalidate(File file) {
+        String path = file.getAbsolutePath();
+        Iterator<Map.Entry<Key, Entry>> it = sEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> entry = it.next();
+            if (entry.getKey().path.equals(path)) {
+                sWeight -= entry.getValue().weight;
+                it.remove();
+            }
+        }
+    }
+
+    static synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            evict(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            evict(sBudget / 2);
+        }
+    }
+
+    /**
+     * Evict the least recently used trees until the rest fit in the given size
+     */
+    static synchronized void evict(long size) {
+        Iterator<Entry> it = sEntries.values().iterator();
+        while (sWeight > size && it.hasNext()) {
+            sWeight -= it.next().weight;
+            it.remove();
+        }
+    }
+
+    static synchronized long weight() {
+        return sWeight;
+    }
+}
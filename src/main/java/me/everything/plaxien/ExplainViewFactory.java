@@ -2,14 +2,29 @@
 
     import android.content.Context;
     import android.content.Intent;
+    import android.content.res.ColorStateList;
+    import android.content.res.TypedArray;
+    import android.graphics.Typeface;
+    import android.os.Handler;
+    import android.os.Looper;
+    import android.text.TextPaint;
     import android.util.Log;
+    import android.util.SparseArray;
+    import android.util.TypedValue;
     import android.view.LayoutInflater;
     import android.view.View;
+    import android.view.ViewGroup;
     import android.widget.ImageView;
     import android.widget.LinearLayout;
+    import android.widget.ListView;
     import android.widget.TextView;
 
     import java.net.URISyntaxException;
+    import java.util.Arrays;
+    import java.util.ListIterator;
+    import java.util.concurrent.CancellationException;
+    import java.util.concurrent.ExecutionException;
+    import java.util.concurrent.Future;
 
     /**
      * A factory that generates Explain views from Explain trees
@@ -19,6 +34,37 @@
         Context mContext;
         ExplainViewStyle mExplainViewStyle = new Builder().build();
 
+        public static final int DEFAULT_POOL_SIZE = 64;
+        public static final int DEFAULT_VIEW_BUDGET = 1000;
+        public static final int DEFAULT_PAGE_SIZE = 500;
+
+        // The pool key of drawn value rows, which have no layout. Resource ids are never 0
+        static final int DRAWN_VALUE_ROW = 0;
+
+        // A collapsed node keeps its children's views for this long, in case it is opened again
+        static final long IDLE_RELEASE_DELAY_MS = 30 * 1000;
+
+        ViewPool mPool = new ViewPool(DEFAULT_POOL_SIZE);
+        int mViewBudget = DEFAULT_VIEW_BUDGET;
+        int mPageSize = DEFAULT_PAGE_SIZE;
+        boolean mDrawValueRows;
+        // Created for the first drawn value row
+        ValueRowView.Paints mRowPaints;
+        // The number of node and value views attached to a window. Views that are dropped without being
+        // recycled are detached along with their window, so they don't stay counted
+        int mLiveViews;
+        final View.OnAttachStateChangeListener mLiveViewCounter = new View.OnAttachStateChangeListener() {
+            @Override
+            public void onViewAttachedToWindow(View v) {
+                mLiveViews++;
+            }
+
+            @Override
+            public void onViewDetachedFromWindow(View v) {
+                mLiveViews--;
+            }
+        };
+
         public ExplainViewFactory(Context context) {
             mContext = context;
             mInflater = LayoutInflater.from(context);
@@ -30,6 +76,82 @@
             mExplainViewStyle = viewStyle;
         }
 
+        /**
+         * Set how many recycled views of each kind (nodes and values) are kept for reuse
+         * @param poolSize the maximal number of pooled views per kind
+         */
+        public void setPoolSize(int poolSize) {
+            mPool = new ViewPool(poolSize);
+        }
+
+        /**
+         * Set the number of node and value views the factory keeps alive. Once that many are attached to a window,
+         * nodes release their children's views to the pool as soon as they are collapsed, instead of
+         * when they have been idle for a while. The budget is a count of views, not of the memory they use.
+         * @param viewBudget the maximal number of live views
+         */
+        public void setViewBudget(int viewBudget) {
+            mViewBudget = viewBudget;
+        }
+
+        /**
+         * Set how many children of a node are rendered at a time. Wider nodes show a row that renders
+         * the next page of children, and count the children that are shown out of all of them.
+         * Views and tree views created after this call use the new page size
+         * @param pageSize the number of children per page
+         */
+        public void setPageSize(int pageSize) {
+            mPageSize = Math.max(1, pageSize);
+        }
+
+        /**
+         * Render values as {@link ValueRowView}s, which draw their title and value themselves, instead of
+         * inflating a layout for each of them. This makes large trees much faster to show, but values can't be
+         * selected and links in them are not detected. Diff values are always inflated, and so are all values
+         * if the value or value name style sets text attributes other than size, typeface, style and color
+         * @param drawValueRows whether to draw value rows
+         */
+        public void setDrawValueRows(boolean drawValueRows) {
+            mDrawValueRows = drawValueRows;
+        }
+
+        /**
+         * Recycle a view created by this factory, along with all the views under it, once it is no longer shown.
+         * The view must already be removed from its parent.
+         * @param view a view returned by {@link #getNodeView(Explain.Node)}
+         */
+        public void recycle(View view) {
+            Object holder = view.getTag();
+            int layout;
+            if (holder instanceof NodeHolder) {
+                ((NodeHolder) holder).unbind();
+                layout = R.layout.explain_node;
+            } else if (holder instanceof ValueNodeHolder) {
+                ((ValueNodeHolder) holder).unbind();
+                layout = R.layout.explain_value;
+            } else if (view instanceof ValueRowView) {
+                ((ValueRowView) view).unbind();
+                layout = DRAWN_VALUE_ROW;
+            } else {
+                return;
+            }
+            mPool.release(layout, view);
+        }
+
+        /**
+         * Get a view of the given layout, from the pool if possible
+         */
+        View obtainView(int layout) {
+            View view = mPool.acquire(layout);
+            if (view == null) {
+                view = mInflater.inflate(layout, null);
+                if (view != null) {
+                    view.addOnAttachStateChangeListener(mLiveViewCounter);
+                }
+            }
+            return view;
+        }
+
         /**
          * Get a "section" view for a multi-explain tree
          * @param tree the root node of the tree
@@ -45,7 +167,7 @@
 
             LinearLayout ll = (LinearLayout)ret.findViewById(R.id.section_items);
 
-            for (Explain.BaseNode root : tree.children) {
+            for (Explain.BaseNode root : tree.getChildren()) {
 
                 if (root.type != Explain.Node.NODE) {
                     continue;
@@ -99,33 +221,80 @@
          * @return a Node view
          */
         public View getNodeView(Explain.Node node) {
-            View view = mInflater.inflate(R.layout.explain_node, null);
+            View view = obtainView(R.layout.explain_node);
             if (view == null) {
                 return null;
             }
-            final NodeHolder holder = new NodeHolder(view, node);
 
-            holder.titleView.setText(node.title);
-            holder.numChildrenView.setText(String.valueOf(node.children.size()));
+            NodeHolder holder = (NodeHolder) view.getTag();
+            if (holder == null) {
+                holder = new NodeHolder(view);
+                view.setTag(holder);
+            }
+            holder.bind(node);
 
+            return view;
 
-            // Hide not-expanded nodes
-            if (!node.expanded) {
-                holder.toggle();
-            } else {
-                holder.renderChildren();
+        }
+
+        /**
+         * Get a section view from an async explainer. A placeholder is returned right away, and the section
+         * is swapped in once the explain is ready. If it is not ready within the deadline, it is cancelled
+         * and a message is shown instead. It is also cancelled if the view is detached from its window before
+         * it is ready, and requested again, with a new deadline, if the view is attached again
+         * @param explainer an async explainer implementor
+         * @param timeoutMillis the deadline of the explain
+         * @param args arguments passed to the explainer
+         * @return a container view, holding the placeholder and then the "Section" view
+         */
+        public View getSectionView(AsyncExplainer explainer, long timeoutMillis, Object... args) {
+            return getPendingView(explainer, timeoutMillis, true, args);
+        }
+
+        /**
+         * Get a plain explain view from an async explainer, with a placeholder until the explain is ready.
+         * @see #getSectionView(AsyncExplainer, long, Object...)
+         */
+        public View getExplainView(AsyncExplainer explainer, long timeoutMillis, Object... args) {
+            return getPendingView(explainer, timeoutMillis, false, args);
+        }
+
+        /**
+         * Get a multi-section view, running all the explainers in parallel. Every section is shown as soon
+         * as its own explain is ready
+         * @param timeoutMillis the deadline of each explain
+         * @param explainers the async explainers of the sections, in order
+         * @return a vertical layout holding the sections
+         */
+        public View getSectionsView(long timeoutMillis, AsyncExplainer... explainers) {
+            LinearLayout ll = new LinearLayout(mContext);
+            ll.setOrientation(LinearLayout.VERTICAL);
+            for (AsyncExplainer explainer : explainers) {
+                ll.addView(getSectionView(explainer, timeoutMillis));
             }
+            return ll;
+        }
 
+        View getPendingView(AsyncExplainer explainer, long timeoutMillis, boolean section, Object... args) {
+            ViewGroup container = (ViewGroup) mInflater.inflate(R.layout.explain_placeholder, null);
+            mExplainViewStyle.applyValueStyle((TextView) container.findViewById(R.id.placeholder_message));
 
-            holder.header.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    holder.toggle();
-                }
-            });
+            PendingExplain pending = new PendingExplain(container, explainer, args, timeoutMillis, section);
+            container.addOnAttachStateChangeListener(pending);
+            pending.start();
+            return container;
+        }
 
+        /**
+         * Get a virtualized tree view for a node. The tree is flattened into a list of visible rows,
+         * so only the rows on screen are ever inflated - use this for very large trees.
+         * @param node The root node of the tree
+         * @return a list view rendering the tree
+         */
+        public ListView getTreeView(Explain.Node node) {
+            ListView view = (ListView) mInflater.inflate(R.layout.explain_tree_view, null);
+            view.setAdapter(new ExplainTreeAdapter(this, node));
             return view;
-
         }
 
         /**
@@ -149,38 +318,218 @@
          * Render a value view for a value node
          */
         private View getValueView(Explain.ValueNode node) {
-            View view = mInflater.inflate(R.layout.explain_value, null);
-            ValueNodeHolder holder = new ValueNodeHolder(view);
-            holder.titleView.setText(node.title);
-            holder.valueView.setText(node.toString());
+            if (drawsValueRow(node)) {
+                return getValueRowView(node);
+            }
 
-            // If this node has a click intent uri, we try to recreate the intent and then start an activity from it
-            if (node.onClickUri != null) {
+            View view = obtainView(R.layout.explain_value);
+            if (view == null) {
+                return null;
+            }
 
-                try {
-                    final Intent i = Intent.parseUri(node.onClickUri, 0);
+            ValueNodeHolder holder = (ValueNodeHolder) view.getTag();
+            if (holder == null) {
+                holder = new ValueNodeHolder(view);
+                view.setTag(holder);
+            }
+            holder.bind(node);
 
-                    View.OnClickListener listener = new View.OnClickListener() {
-                        @Override
-                        public void onClick(View v) {
-                            mContext.startActivity(i);
-                        }
-                    };
+            return view;
+        }
 
-                    holder.valueView.setOnClickListener(listener);
-                    holder.titleView.setOnClickListener(listener);
-                    view.setOnClickListener(listener);
+        /**
+         * Whether a value is rendered by a {@link ValueRowView}
+         */
+        boolean drawsValueRow(Explain.ValueNode node) {
+            return mDrawValueRows && ExplainDiff.stateOf(node) == ExplainDiff.UNCHANGED
+                    && mExplainViewStyle.canDrawValues(mContext);
+        }
 
-                } catch (URISyntaxException e) {
-                    Log.e("ExplainViewFactory", "Error parsing intent uri: " + node.onClickUri, e);
-                }
+        /**
+         * Render a drawn value row for a value node
+         */
+        ValueRowView getValueRowView(Explain.ValueNode node) {
+            ValueRowView view = (ValueRowView) mPool.acquire(DRAWN_VALUE_ROW);
+            if (view == null) {
+                view = new ValueRowView(mContext, getRowPaints());
+                view.addOnAttachStateChangeListener(mLiveViewCounter);
             }
 
+            view.bind(node, node.onClickUri != null ? parseClickIntent(node) : null);
             return view;
         }
 
+        ValueRowView.Paints getRowPaints() {
+            if (mRowPaints == null) {
+                mRowPaints = new ValueRowView.Paints(mContext, mExplainViewStyle);
+            }
+            return mRowPaints;
+        }
+
+        /**
+         * The text of a node's children counter, when only some of them may be shown
+         */
+        String formatChildCount(int shown, int total) {
+            if (shown >= total) {
+                return String.valueOf(total);
+            }
+            return mContext.getString(R.string.explain_shown_of_total, shown, total);
+        }
+
+        String formatMoreLabel(boolean previous, int count) {
+            return mContext.getString(previous ? R.string.explain_show_previous : R.string.explain_show_next, count);
+        }
+
+        /**
+         * Create a listener that starts the intent of a value node's click uri
+         * @return the listener, or null if the uri could not be parsed
+         */
+        View.OnClickListener createClickListener(Explain.ValueNode node) {
+            final Intent i = parseClickIntent(node);
+            if (i == null) {
+                return null;
+            }
+
+            return new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    mContext.startActivity(i);
+                }
+            };
+        }
 
+        /**
+         * Parse the intent of a value node's click uri
+         * @return the intent, or null if the uri could not be parsed
+         */
+        Intent parseClickIntent(Explain.ValueNode node) {
+            try {
+                return Intent.parseUri(node.onClickUri, 0);
+            } catch (URISyntaxException e) {
+                Log.e("ExplainViewFactory", "Error parsing intent uri: " + node.onClickUri, e);
+                return null;
+            }
+        }
 
+        /**
+         * Waits for an async explain, and swaps it into its placeholder. The explainer's callback posts the
+         * swap to the main thread, so no thread is kept blocked on the future
+         */
+        class PendingExplain implements View.OnAttachStateChangeListener, AsyncExplainer.Callback {
+            final ViewGroup mContainer;
+            final AsyncExplainer mExplainer;
+            final Object[] mArgs;
+            final long mTimeoutMillis;
+            final boolean mSection;
+            final Handler mHandler = new Handler(Looper.getMainLooper());
+            Future<Explain.Node> mFuture;
+            // Set once the explain or a message is shown
+            boolean mDone;
+            // Set when the explain was cancelled by detaching the view, so it's requested again on attach
+            boolean mDetached;
+
+            final Runnable mTimeout = new Runnable() {
+                @Override
+                public void run() {
+                    stop();
+                    showMessage(R.string.explain_timed_out);
+                }
+            };
+
+            PendingExplain(ViewGroup container, AsyncExplainer explainer, Object[] args, long timeoutMillis,
+                           boolean section) {
+                mContainer = container;
+                mExplainer = explainer;
+                mArgs = args;
+                mTimeoutMillis = timeoutMillis;
+                mSection = section;
+            }
+
+            /**
+             * Request the explain, and show the progress until it's ready
+             */
+            void start() {
+                mContainer.findViewById(R.id.placeholder_progress).setVisibility(View.VISIBLE);
+                mContainer.findViewById(R.id.placeholder_message).setVisibility(View.GONE);
+                mFuture = mExplainer.getExplainAsync(this, mArgs);
+                mHandler.postDelayed(mTimeout, mTimeoutMillis);
+            }
+
+            /**
+             * Stop waiting, and cancel the explain if it's still running
+             */
+            void stop() {
+                mHandler.removeCallbacks(mTimeout);
+                Future<Explain.Node> future = mFuture;
+                // Cleared first, so the completion of the cancelled request is ignored
+                mFuture = null;
+                future.cancel(true);
+            }
+
+            @Override
+            public void onDone(final Future<Explain.Node> future) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Requests that were stopped, or replaced after the view was reattached, are ignored
+                        if (future == mFuture && !mDone) {
+                            finish();
+                        }
+                    }
+                });
+            }
+
+            void finish() {
+                mHandler.removeCallbacks(mTimeout);
+                try {
+                    show(mFuture.get());
+                } catch (ExecutionException e) {
+                    Log.e("ExplainViewFactory", "Async explain failed", e.getCause());
+                    showMessage(R.string.explain_failed);
+                } catch (CancellationException e) {
+                    showMessage(R.string.explain_cancelled);
+                } catch (InterruptedException e) {
+                    // The future is done, so getting it doesn't wait
+                    showMessage(R.string.explain_failed);
+                }
+            }
+
+            void showMessage(int message) {
+                mDone = true;
+                mContainer.findViewById(R.id.placeholder_progress).setVisibility(View.GONE);
+                TextView messageView = (TextView) mContainer.findViewById(R.id.placeholder_message);
+                messageView.setText(message);
+                messageView.setVisibility(View.VISIBLE);
+            }
+
+            void show(Explain.Node node) {
+                mDone = true;
+                mContainer.removeAllViews();
+                if (node == null) {
+                    return;
+                }
+                View view = mSection ? getSectionView(node) : getNodeView(node);
+                if (view != null) {
+                    mContainer.addView(view);
+                }
+            }
+
+            @Override
+            public void onViewAttachedToWindow(View v) {
+                if (mDetached) {
+                    mDetached = false;
+                    start();
+                }
+            }
+
+            @Override
+            public void onViewDetachedFromWindow(View v) {
+                if (!mDone) {
+                    stop();
+                    mDetached = true;
+                }
+            }
+        }
 
 
         class NodeHolder {
@@ -190,10 +539,28 @@
             TextView numChildrenView;
             View header;
             Explain.Node mNode;
+            int mDiffState = ExplainDiff.UNCHANGED;
+            // The range of children that is rendered, when the node is wider than a page
+            int mFirstChild;
+            int mEndChild;
+            // The index of the child each rendered view shows, in order. Children that got no view are left out
+            int[] mRenderedChildren = new int[0];
+            int mRenderedCount;
+            // Render the previous and the next pages. Created for the first wide node the holder shows
+            TextView mPreviousView;
+            TextView mNextView;
+
+            final Runnable mReleaseChildren = new Runnable() {
+                @Override
+                public void run() {
+                    if (itemsView.getVisibility() != View.VISIBLE) {
+                        releaseChildren();
+                    }
+                }
+            };
 
 
-            public NodeHolder(View view, Explain.Node node) {
-                mNode = node;
+            public NodeHolder(View view) {
                 titleView = (TextView) view.findViewById(R.id.node_title);
                 mExplainViewStyle.applyNodeNameStyle(titleView);
                 itemsView = (LinearLayout) view.findViewById(R.id.node_items);
@@ -201,6 +568,47 @@
                 numChildrenView = (TextView)view.findViewById(R.id.node_num_children);
                 mExplainViewStyle.applyNodeCounterStyle(numChildrenView);
                 header = view.findViewById(R.id.node_header);
+
+                header.setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        toggle();
+                    }
+                });
+            }
+
+            /**
+             * Bind a (possibly recycled) view to a node
+             */
+            void bind(Explain.Node node) {
+                mNode = node;
+                titleView.setText(node.title);
+
+                // Recycled views must not keep the diff style of the node they showed before
+                int diffState = ExplainDiff.stateOf(node);
+                if (diffState != mDiffState) {
+                    mExplainViewStyle.applyNodeNameStyle(titleView);
+                    mExplainViewStyle.applyDiffStyle(titleView, diffState);
+                    mDiffState = diffState;
+                }
+                mFirstChild = 0;
+                mEndChild = 0;
+                updateCounter();
+
+                // Hide not-expanded nodes
+                if (node.expanded) {
+                    expand();
+                } else {
+                    collapse();
+                }
+            }
+
+            /**
+             * Recycle the children's views and let go of the node, before the view goes back to the pool
+             */
+            void unbind() {
+                releaseChildren();
+                mNode = null;
             }
 
             /**
@@ -209,34 +617,193 @@
             public void toggle() {
 
                     if (itemsView.getVisibility() == View.VISIBLE) {
-                        icon.setImageResource(R.drawable.arrow_down);
-                        itemsView.setVisibility(View.GONE);
+                        collapse();
                     } else {
+                        expand();
+                    }
+            }
 
-                        if (itemsView.getChildCount() == 0) {
-                            renderChildren();
-                        }
+            void expand() {
+                header.removeCallbacks(mReleaseChildren);
+                if (itemsView.getChildCount() == 0) {
+                    renderChildren();
+                }
 
-                        icon.setImageResource(R.drawable.arrow_up);
-                        itemsView.setVisibility(View.VISIBLE);
+                icon.setImageResource(R.drawable.arrow_up);
+                itemsView.setVisibility(View.VISIBLE);
+            }
 
-                    }
+            void collapse() {
+                icon.setImageResource(R.drawable.arrow_down);
+                itemsView.setVisibility(View.GONE);
+
+                if (itemsView.getChildCount() == 0) {
+                    return;
+                }
+                // Keep the children around for a quick re-open, unless we're already holding too many views
+                if (mLiveViews >= mViewBudget) {
+                    releaseChildren();
+                } else {
+                    header.removeCallbacks(mReleaseChildren);
+                    header.postDelayed(mReleaseChildren, IDLE_RELEASE_DELAY_MS);
+                }
             }
 
             /**
-             * Renders the node's children lazily - only when the node is opened
+             * Renders the node's children lazily - only when the node is opened.
+             * Only the page of children starting at mFirstChild is rendered
              */
             public void renderChildren() {
                 // Recursively render the children
-                if (mNode.children != null) {
-                    for (Explain.BaseNode child : mNode.children) {
+                if (mNode.getChildren() != null) {
+                    mEndChild = mFirstChild;
+                    renderPage(Math.min(mFirstChild + mPageSize, mNode.size()), false);
+                }
+                updatePaging();
+            }
 
-                        View childView = getView(child);
-                        if (childView != null) {
-                            itemsView.addView(childView);
-                        }
+            /**
+             * Render the children up to the given end after the rendered ones, or before them from the given start
+             */
+            void renderPage(int bound, boolean before) {
+                int start = before ? bound : mEndChild;
+                int end = before ? mFirstChild : bound;
+                // Child lists are random access, so this does not walk the children before the page
+                ListIterator<Explain.BaseNode> children = mNode.getChildren().listIterator(start);
+                int index = before ? 0 : itemsView.getChildCount();
+                int[] rendered = new int[end - start];
+                int count = 0;
+                for (int i = start; i < end; i++) {
+                    View childView = getView(children.next());
+                    if (childView != null) {
+                        itemsView.addView(childView, index++);
+                        rendered[count++] = i;
+                    }
+                }
+                addRenderedChildren(rendered, count, before);
+                if (before) {
+                    mFirstChild = start;
+                } else {
+                    mEndChild = end;
+                }
+            }
+
+            void addRenderedChildren(int[] rendered, int count, boolean before) {
+                int[] all = new int[mRenderedCount + count];
+                System.arraycopy(rendered, 0, all, before ? 0 : mRenderedCount, count);
+                System.arraycopy(mRenderedChildren, 0, all, before ? count : 0, mRenderedCount);
+                mRenderedChildren = all;
+                mRenderedCount += count;
+            }
 
+            /**
+             * Render the next page of children
+             */
+            void showNext() {
+                itemsView.removeView(mNextView);
+                renderPage(Math.min(mEndChild + mPageSize, mNode.size()), false);
+                updatePaging();
+            }
+
+            /**
+             * Render the previous page of children
+             */
+            void showPrevious() {
+                itemsView.removeView(mPreviousView);
+                renderPage(Math.max(0, mFirstChild - mPageSize), true);
+                updatePaging();
+            }
+
+            /**
+             * Expand the node to show one of its children. If it's not rendered, the node is re-rendered
+             * from the page holding it, which takes as long as rendering that page
+             * @param index the index of the child among the node's children
+             * @return the child's view, or null if there is no such child, or it could not be rendered
+             */
+            public View showChild(int index) {
+                if (index < 0 || index >= mNode.size()) {
+                    return null;
+                }
+                if (index < mFirstChild || index >= mEndChild) {
+                    releaseChildren();
+                    mFirstChild = index - index % mPageSize;
+                }
+                expand();
+
+                // Children that could not be rendered have no view, so the views are found by the children they show
+                int position = Arrays.binarySearch(mRenderedChildren, 0, mRenderedCount, index);
+                if (position < 0) {
+                    return null;
+                }
+                int offset = mFirstChild > 0 ? 1 : 0;
+                return itemsView.getChildAt(offset + position);
+            }
+
+            /**
+             * Add or remove the previous and next page rows, according to the rendered range
+             */
+            void updatePaging() {
+                int size = mNode.size();
+                if (mFirstChild > 0) {
+                    if (mPreviousView == null) {
+                        mPreviousView = createMoreView(true);
                     }
+                    if (mPreviousView.getParent() == null) {
+                        itemsView.addView(mPreviousView, 0);
+                    }
+                    mPreviousView.setText(formatMoreLabel(true, Math.min(mFirstChild, mPageSize)));
+                }
+                if (mEndChild < size) {
+                    if (mNextView == null) {
+                        mNextView = createMoreView(false);
+                    }
+                    if (mNextView.getParent() == null) {
+                        itemsView.addView(mNextView);
+                    }
+                    mNextView.setText(formatMoreLabel(false, Math.min(size - mEndChild, mPageSize)));
+                }
+                updateCounter();
+            }
+
+            TextView createMoreView(final boolean previous) {
+                TextView view = (TextView) mInflater.inflate(R.layout.explain_more_row, null);
+                view.setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        if (previous) {
+                            showPrevious();
+                        } else {
+                            showNext();
+                        }
+                    }
+                });
+                return view;
+            }
+
+            void updateCounter() {
+                int size = mNode.size();
+                numChildrenView.setText(formatChildCount(itemsView.getChildCount() > 0 ? mEndChild - mFirstChild : size, size));
+            }
+
+            /**
+             * Return the children's views to the pool. They are rendered again the next time the node is opened
+             */
+            void releaseChildren() {
+                header.removeCallbacks(mReleaseChildren);
+                int count = itemsView.getChildCount();
+                View[] children = new View[count];
+                for (int i = 0; i < count; i++) {
+                    children[i] = itemsView.getChildAt(i);
+                }
+                // Views must be detached before they can be reused
+                itemsView.removeAllViews();
+                for (View child : children) {
+                    recycle(child);
+                }
+                mRenderedCount = 0;
+                mEndChild = mFirstChild;
+                if (mNode != null) {
+                    updateCounter();
                 }
             }
 
@@ -247,44 +814,268 @@
         class ValueNodeHolder {
             TextView titleView;
             TextView valueView;
+            View view;
+            boolean clickable;
+            int mDiffState = ExplainDiff.UNCHANGED;
 
             public ValueNodeHolder(View view) {
+                this.view = view;
                 titleView = (TextView) view.findViewById(R.id.vname);
                 mExplainViewStyle.applyValueNameStyle(titleView);
                 valueView = (TextView) view.findViewById(R.id.vvalue);
                 mExplainViewStyle.applyValueStyle(valueView);
             }
+
+            /**
+             * Bind a (possibly recycled) view to a value node
+             */
+            void bind(Explain.ValueNode node) {
+                titleView.setText(node.title);
+                valueView.setText(node.toString());
+
+                int diffState = ExplainDiff.stateOf(node);
+                if (diffState != mDiffState) {
+                    mExplainViewStyle.applyValueNameStyle(titleView);
+                    mExplainViewStyle.applyDiffStyle(titleView, diffState);
+                    mExplainViewStyle.applyValueStyle(valueView);
+                    mExplainViewStyle.applyDiffStyle(valueView, diffState);
+                    mDiffState = diffState;
+                }
+
+                // If this node has a click intent uri, we try to recreate the intent and then start an activity from it
+                View.OnClickListener listener = node.onClickUri != null ? createClickListener(node) : null;
+                if (listener != null) {
+                    valueView.setOnClickListener(listener);
+                    titleView.setOnClickListener(listener);
+                    view.setOnClickListener(listener);
+                    clickable = true;
+                } else if (clickable) {
+                    unbind();
+                }
+            }
+
+            void unbind() {
+                if (!clickable) {
+                    return;
+                }
+                for (View v : new View[] {valueView, titleView, view}) {
+                    v.setOnClickListener(null);
+                    v.setClickable(false);
+                }
+                clickable = false;
+            }
         }
 
         /**
-         * The customization styling of Explain view
+         * The customization styling of Explain view.
+         * Each style is resolved from its resource once, the first time it is applied, and then applied
+         * straight to views - expanding a node would otherwise resolve the styles again for every text it shows
          */
         public static class ExplainViewStyle {
 
+            // The text appearance attributes of a style, sorted as obtainStyledAttributes requires
+            static final int[] TEXT_ATTRS = {
+                    android.R.attr.textSize,
+                    android.R.attr.typeface,
+                    android.R.attr.textStyle,
+                    android.R.attr.textColor,
+            };
+            static final int ATTR_TEXT_SIZE = 0;
+            static final int ATTR_TYPEFACE = 1;
+            static final int ATTR_TEXT_STYLE = 2;
+            static final int ATTR_TEXT_COLOR = 3;
+
+            // The other text appearance attributes. Styles that set any of them are applied with setTextAppearance,
+            // and values of such styles are not drawn
+            static final int[] OTHER_TEXT_ATTRS = {
+                    android.R.attr.textColorHighlight,
+                    android.R.attr.textColorHint,
+                    android.R.attr.textColorLink,
+                    android.R.attr.shadowColor,
+                    android.R.attr.shadowDx,
+                    android.R.attr.shadowDy,
+                    android.R.attr.shadowRadius,
+                    android.R.attr.textAllCaps,
+                    android.R.attr.fontFamily,
+                    android.R.attr.letterSpacing,
+                    android.R.attr.fontFeatureSettings,
+                    android.R.attr.elegantTextHeight,
+            };
+
             private Builder mBuilder;
+            // Resolved styles by their resource ids
+            final SparseArray<ResolvedStyle> mResolved = new SparseArray<ResolvedStyle>();
 
             ExplainViewStyle(Builder builder) {
                 mBuilder = builder;
             }
 
             public void applyTitleStyle(TextView view) {
-                view.setTextAppearance(view.getContext(), mBuilder.titleStyle);
+                apply(view, mBuilder.titleStyle);
             }
 
             public void applyNodeNameStyle(TextView view) {
-                view.setTextAppearance(view.getContext(), mBuilder.nodeNameStyle);
+                apply(view, mBuilder.nodeNameStyle);
             }
 
             public void applyNodeCounterStyle(TextView view) {
-                view.setTextAppearance(view.getContext(), mBuilder.nodeCounterStyle);
+                apply(view, mBuilder.nodeCounterStyle);
             }
 
             public void applyValueStyle(TextView view) {
-                view.setTextAppearance(view.getContext(), mBuilder.valueStyle);
+                apply(view, mBuilder.valueStyle);
             }
 
             public void applyValueNameStyle(TextView view) {
-                view.setTextAppearance(view.getContext(), mBuilder.valueNameStyle);
+                apply(view, mBuilder.valueNameStyle);
+            }
+
+            /**
+             * Apply the style of a diff state over a view's own style
+             * @param state one of the {@link ExplainDiff} states
+             */
+            public void applyDiffStyle(TextView view, int state) {
+                int style;
+                switch (state) {
+                    case ExplainDiff.ADDED:
+                        style = mBuilder.diffAddedStyle;
+                        break;
+                    case ExplainDiff.REMOVED:
+                        style = mBuilder.diffRemovedStyle;
+                        break;
+                    case ExplainDiff.CHANGED:
+                        style = mBuilder.diffChangedStyle;
+                        break;
+                    default:
+                        return;
+                }
+                apply(view, style);
+            }
+
+            /**
+             * Whether the value and value name styles can be drawn by a {@link ValueRowView}
+             */
+            boolean canDrawValues(Context context) {
+                return resolve(context, mBuilder.valueNameStyle).mResolvesAll
+                        && resolve(context, mBuilder.valueStyle).mResolvesAll;
+            }
+
+            /**
+             * Apply the value name style to the paint of a drawn row
+             */
+            void applyValueNameStyle(Context context, TextPaint paint) {
+                resolve(context, mBuilder.valueNameStyle).apply(paint);
+            }
+
+            /**
+             * Apply the value style to the paint of a drawn row
+             */
+            void applyValueStyle(Context context, TextPaint paint) {
+                resolve(context, mBuilder.valueStyle).apply(paint);
+            }
+
+            void apply(TextView view, int style) {
+                resolve(view.getContext(), style).apply(view);
+            }
+
+            ResolvedStyle resolve(Context context, int style) {
+                ResolvedStyle resolved = mResolved.get(style);
+                if (resolved == null) {
+                    resolved = new ResolvedStyle(context, style);
+                    mResolved.put(style, resolved);
+                }
+                return resolved;
+            }
+
+            /**
+             * The text size, color and typeface of a style. Like setTextAppearance, only the attributes
+             * the style sets are applied, so a style can be applied over another. Styles that set any other
+             * text appearance attribute are applied with setTextAppearance itself
+             */
+            static class ResolvedStyle {
+                final int mStyle;
+                // Whether the style sets no other attribute than the ones resolved here
+                final boolean mResolvesAll;
+                // -1 if the style doesn't set them
+                final int mTextSize;
+                final int mTextStyle;
+                final boolean mHasTypeface;
+                final Typeface mTypeface;
+                final ColorStateList mTextColor;
+
+                ResolvedStyle(Context context, int style) {
+                    mStyle = style;
+                    mResolvesAll = !setsAny(context, style, OTHER_TEXT_ATTRS);
+                    TypedArray a = context.obtainStyledAttributes(style, TEXT_ATTRS);
+                    try {
+                        mTextSize = a.getDimensionPixelSize(ATTR_TEXT_SIZE, -1);
+                        mHasTypeface = a.hasValue(ATTR_TYPEFACE) || a.hasValue(ATTR_TEXT_STYLE);
+                        mTypeface = typeface(a.getInt(ATTR_TYPEFACE, -1));
+                        mTextStyle = a.getInt(ATTR_TEXT_STYLE, -1);
+                        mTextColor = a.getColorStateList(ATTR_TEXT_COLOR);
+                    } finally {
+                        a.recycle();
+                    }
+                }
+
+                /**
+                 * Check whether a style sets any of the attributes. They are looked up one at a time, since
+                 * obtainStyledAttributes needs them sorted by id, and some of them only exist on newer platforms
+                 */
+                static boolean setsAny(Context context, int style, int[] attrs) {
+                    for (int attr : attrs) {
+                        TypedArray a = context.obtainStyledAttributes(style, new int[] {attr});
+                        try {
+                            if (a.hasValue(0)) {
+                                return true;
+                            }
+                        } finally {
+                            a.recycle();
+                        }
+                    }
+                    return false;
+                }
+
+                static Typeface typeface(int index) {
+                    switch (index) {
+                        case 1:
+                            return Typeface.SANS_SERIF;
+                        case 2:
+                            return Typeface.SERIF;
+                        case 3:
+                            return Typeface.MONOSPACE;
+                        default:
+                            return null;
+                    }
+                }
+
+                void apply(TextView view) {
+                    if (!mResolvesAll) {
+                        view.setTextAppearance(view.getContext(), mStyle);
+                        return;
+                    }
+                    if (mTextSize >= 0) {
+                        view.setTextSize(TypedValue.COMPLEX_UNIT_PX, mTextSize);
+                    }
+                    if (mHasTypeface) {
+                        view.setTypeface(mTypeface, Math.max(mTextStyle, Typeface.NORMAL));
+                    }
+                    if (mTextColor != null) {
+                        view.setTextColor(mTextColor);
+                    }
+                }
+
+                void apply(TextPaint paint) {
+                    if (mTextSize >= 0) {
+                        paint.setTextSize(mTextSize);
+                    }
+                    if (mHasTypeface) {
+                        paint.setTypeface(Typeface.create(mTypeface, Math.max(mTextStyle, Typeface.NORMAL)));
+                    }
+                    if (mTextColor != null) {
+                        paint.setColor(mTextColor.getDefaultColor());
+                    }
+                }
             }
         }
 
@@ -295,6 +1086,9 @@
             int nodeCounterStyle = R.style.PlaxienNodeCounter;
             int valueNameStyle = R.style.PlaxienValueName;
             int valueStyle = R.style.PlaxienValue;
+            int diffAddedStyle = R.style.PlaxienDiffAdded;
+            int diffRemovedStyle = R.style.PlaxienDiffRemoved;
+            int diffChangedStyle = R.style.PlaxienDiffChanged;
 
             /**
              * Set the style resource of the title text
@@ -346,6 +1140,36 @@
                 return this;
             }
 
+            /**
+             * Set the style of added nodes in a diff, applied over their own style
+             * @param style The style resource
+             * @return {@link me.everything.plaxien.ExplainViewFactory.Builder}
+             */
+            public Builder setDiffAddedStyle(int style) {
+                diffAddedStyle = style;
+                return this;
+            }
+
+            /**
+             * Set the style of removed nodes in a diff, applied over their own style
+             * @param style The style resource
+             * @return {@link me.everything.plaxien.ExplainViewFactory.Builder}
+             */
+            public Builder setDiffRemovedStyle(int style) {
+                diffRemovedStyle = style;
+                return this;
+            }
+
+            /**
+             * Set the style of changed nodes in a diff, applied over their own style
+             * @param style The style resource
+             * @return {@link me.everything.plaxien.ExplainViewFactory.Builder}
+             */
+            public Builder setDiffChangedStyle(int style) {
+                diffChangedStyle = style;
+                return this;
+            }
+
             /**
              * Build the view style
              * @return @return {@link me.everything.plaxien.ExplainViewFactory.ExplainViewStyle}
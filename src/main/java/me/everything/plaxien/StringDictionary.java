@@ -0,0 +1,54 @@
+package me.everything.plaxien;
+
+import java.util.HashMap;
+
+/**
+ * A per-tree dictionary of strings, used while building a tree to share a single instance of each
+ * repeated title or short value. Explains are usually lists of objects sharing the same keys, so
+ * this saves a string per occurrence.
+ *
+ * Unlike String.intern(), the dictionary goes away with the tree that uses it.
+ */
+public class StringDictionary {
+
+    // Longer strings are rarely repeated, so there is no point in keeping them
+    public static final int DEFAULT_MAX_LENGTH = 64;
+
+    private final HashMap<String, String> mStrings = new HashMap<String, String>();
+    private final int mMaxLength;
+
+    public StringDictionary() {
+        this(DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * @param maxLength strings longer than this are returned as is, without being kept
+     */
+    public StringDictionary(int maxLength) {
+        mMaxLength = maxLength;
+    }
+
+    /**
+     * Get the shared instance of a string
+     * @param s the string, may be null
+     * @return the instance kept by the dictionary, or s itself if it is the first of its kind or too long
+     */
+    public synchronized String intern(String s) {
+        if (s == null || s.length() > mMaxLength) {
+            return s;
+        }
+        String ret = mStrings.get(s);
+        if (ret == null) {
+            mStrings.put(s, s);
+            ret = s;
+        }
+        return ret;
+    }
+
+    /**
+     * @return the number of distinct strings kept
+     */
+    public synchronized int size() {
+        return mStrings.size();
+    }
+}
@@ -0,0 +1,155 @@
+package me.everything.plaxien;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.view.View;
+
+/**
+ * A value row that draws its title and value itself, instead of inflating a layout of text views.
+ *
+ * The row is a single view, its paints are shared by all the rows of a factory, and the value's text layout
+ * is only built when the value or the row's width change - so measuring, laying out and drawing it is much
+ * cheaper than the inflated row. Use it for trees with many thousands of values.
+ * Unlike the inflated row, the text can't be selected and links in it are not detected.
+ */
+public class ValueRowView extends View {
+
+    // The inflated row's name is limited to as many characters
+    static final int MAX_TITLE_LENGTH = 24;
+
+    /**
+     * The paints and metrics shared by all the rows of a factory
+     */
+    static class Paints {
+        final TextPaint title = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        final TextPaint value = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        final Paint.FontMetricsInt titleMetrics;
+        final Drawable icon;
+        final int padding;
+        final int iconSize;
+        final int iconMargin;
+
+        Paints(Context context, ExplainViewFactory.ExplainViewStyle style) {
+            style.applyValueNameStyle(context, title);
+            style.applyValueStyle(context, value);
+            titleMetrics = title.getFontMetricsInt();
+
+            Resources res = context.getResources();
+            icon = res.getDrawable(R.drawable.info);
+            padding = res.getDimensionPixelSize(R.dimen.plaxien_value_padding);
+            iconSize = res.getDimensionPixelSize(R.dimen.plaxien_value_icon_size);
+            iconMargin = res.getDimensionPixelSize(R.dimen.plaxien_value_icon_margin);
+        }
+    }
+
+    final Paints mPaints;
+    String mTitle = "";
+    String mValue = "";
+    Intent mIntent;
+
+    // Built for the width they were measured at
+    int mLayoutWidth = -1;
+    CharSequence mTitleText;
+    StaticLayout mValueLayout;
+
+    ValueRowView(Context context, Paints paints) {
+        super(context);
+        mPaints = paints;
+        setPadding(paints.padding, paints.padding, paints.padding, paints.padding);
+    }
+
+    /**
+     * Bind a (possibly recycled) row to a value node
+     * @param intent the intent to start when the row is clicked, or null
+     */
+    void bind(Explain.ValueNode node, Intent intent) {
+        String title = node.title != null ? node.title : "";
+        mTitle = title.length() > MAX_TITLE_LENGTH ? title.substring(0, MAX_TITLE_LENGTH) : title;
+        mValue = node.toString();
+        mIntent = intent;
+        setClickable(intent != null);
+
+        mLayoutWidth = -1;
+        requestLayout();
+        invalidate();
+    }
+
+    void unbind() {
+        mIntent = null;
+        setClickable(false);
+        mValueLayout = null;
+        mTitleText = null;
+        mLayoutWidth = -1;
+    }
+
+    @Override
+    public boolean performClick() {
+        boolean handled = super.performClick();
+        if (mIntent != null) {
+            getContext().startActivity(mIntent);
+            return true;
+        }
+        return handled;
+    }
+
+    void buildLayouts(int width) {
+        if (width == mLayoutWidth && mValueLayout != null) {
+            return;
+        }
+
+        int available = Math.max(0, width - getPaddingLeft() - getPaddingRight() - mPaints.iconSize - mPaints.iconMargin);
+        mTitleText = TextUtils.ellipsize(mTitle, mPaints.title, available, TextUtils.TruncateAt.END);
+        int titleWidth = (int) Math.ceil(mPaints.title.measureText(mTitleText, 0, mTitleText.length()));
+        int valueWidth = Math.max(0, available - titleWidth - mPaints.iconMargin);
+        mValueLayout = new StaticLayout(mValue, mPaints.value, valueWidth, Layout.Alignment.ALIGN_OPPOSITE,
+                1, 0, false);
+        mLayoutWidth = width;
+    }
+
+    int titleHeight() {
+        return mPaints.titleMetrics.descent - mPaints.titleMetrics.ascent;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        // Rows fill the width of their parent, like the inflated ones
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        buildLayouts(width);
+
+        int content = Math.max(mPaints.iconSize, Math.max(titleHeight(), mValueLayout.getHeight()));
+        int height = getPaddingTop() + content + getPaddingBottom();
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        buildLayouts(getWidth());
+
+        int left = getPaddingLeft();
+        int top = getPaddingTop();
+        int content = getHeight() - top - getPaddingBottom();
+
+        // Everything is centered vertically
+        int iconTop = top + (content - mPaints.iconSize) / 2;
+        mPaints.icon.setBounds(left, iconTop, left + mPaints.iconSize, iconTop + mPaints.iconSize);
+        mPaints.icon.draw(canvas);
+
+        int x = left + mPaints.iconSize + mPaints.iconMargin;
+        int baseline = top + (content - titleHeight()) / 2 - mPaints.titleMetrics.ascent;
+        canvas.drawText(mTitleText, 0, mTitleText.length(), x, baseline, mPaints.title);
+
+        canvas.save();
+        canvas.translate(getWidth() - getPaddingRight() - mValueLayout.getWidth(),
+                top + (content - mValueLayout.getHeight()) / 2);
+        mValueLayout.draw(canvas);
+        canvas.restore();
+    }
+}
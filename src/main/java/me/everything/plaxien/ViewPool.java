@@ -0,0 +1,67 @@
+package me.everything.plaxien;
+
+import android.util.SparseArray;
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * A bounded pool of detached views, keyed by the layout they were inflated from.
+ * Views released to a full pool are simply dropped and left to the GC.
+ */
+class ViewPool {
+
+    private final SparseArray<ArrayList<View>> mViews = new SparseArray<ArrayList<View>>();
+    private final int mMaxPerType;
+
+    /**
+     * @param maxPerType the maximal number of views kept for each layout
+     */
+    ViewPool(int maxPerType) {
+        mMaxPerType = maxPerType;
+    }
+
+    /**
+     * Take a view out of the pool
+     * @param layout the layout resource the view was inflated from
+     * @return a pooled view, or null if there is none
+     */
+    View acquire(int layout) {
+        ArrayList<View> views = mViews.get(layout);
+        if (views == null || views.isEmpty()) {
+            return null;
+        }
+        return views.remove(views.size() - 1);
+    }
+
+    /**
+     * Return a detached view to the pool
+     * @param layout the layout resource the view was inflated from
+     * @param view the view, which must not have a parent
+     * @return true if the view was kept, false if the pool is full
+     */
+    boolean release(int layout, View view) {
+        ArrayList<View> views = mViews.get(layout);
+        if (views == null) {
+            views = new ArrayList<View>();
+            mViews.put(layout, views);
+        }
+        if (views.size() >= mMaxPerType) {
+            return false;
+        }
+        views.add(view);
+        return true;
+    }
+
+    /**
+     * @return the number of pooled views of a layout
+     */
+    int size(int layout) {
+        ArrayList<View> views = mViews.get(layout);
+        return views == null ? 0 : views.size();
+    }
+
+    void clear() {
+        mViews.clear();
+    }
+}
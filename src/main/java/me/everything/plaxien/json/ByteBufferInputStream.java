@@ -0,0 +1,36 @@
+package me.everything.plaxien.json;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream over a byte buffer, so that stream parsers can read mapped files
+ */
+public class ByteBufferInputStream extends InputStream {
+    final ByteBuffer mBuffer;
+
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        // Our own position, so that the mapping can be shared
+        mBuffer = buffer.duplicate();
+    }
+
+    @Override
+    public int read() {
+        return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+        length = Math.min(length, mBuffer.remaining());
+        mBuffer.get(bytes, offset, length);
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return mBuffer.remaining();
+    }
+}
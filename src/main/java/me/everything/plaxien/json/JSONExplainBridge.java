@@ -1,13 +1,29 @@
 package me.everything.plaxien.json;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 
 import me.everything.plaxien.Explain;
+import me.everything.plaxien.ExplainCompactor;
+import me.everything.plaxien.StringDictionary;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 
 /**
@@ -19,66 +35,351 @@ import com.google.gson.JsonParser;
  */
 public class JSONExplainBridge {
 
+    boolean mShareSubtrees;
 
-
-    JsonParser mParser;
+    ParseLimits mLimits = new ParseLimits();
 
     public JSONExplainBridge() {
+    }
 
-        mParser = new JsonParser();
+    /**
+     * Set the limits on the parsed trees. Parts of the JSON that are over the limits are left out of the tree,
+     * and replaced by a value saying how much was elided. The defaults are generous, and are only meant to
+     * protect against broken responses
+     */
+    public JSONExplainBridge setParseLimits(ParseLimits limits) {
+        mLimits = limits;
+        return this;
     }
 
+    /**
+     * Share repeated subtrees of the parsed trees, e.g. the same config object under every search result.
+     * This costs an extra pass over the tree when it's parsed, and the parsed tree can't be modified.
+     * Lazily parsed trees are not affected
+     * @see ExplainCompactor
+     */
+    public JSONExplainBridge setShareSubtrees(boolean shareSubtrees) {
+        mShareSubtrees = shareSubtrees;
+        return this;
+    }
 
+    Explain.Node finish(Explain.Node tree) {
+        if (mShareSubtrees) {
+            // Trims the tree as well
+            return ExplainCompactor.compact(tree);
+        }
+        tree.trimToSize(true);
+        return tree;
+    }
 
-    void parseArray(JsonArray arr, Explain.Node node) {
 
+    /**
+     * The state of a single parse. It's kept apart from the bridge, so that a bridge can be used for several
+     * parses at once, and so that nothing of a parsed tree stays reachable from the bridge.
+     * The lazy nodes of a tree share the context of the tree, and keep parsing it as they are opened
+     */
+    static class ParseContext {
+        // Shares repeated keys and short values across the tree being parsed
+        final StringDictionary dictionary = new StringDictionary();
+        final ParseLimits limits;
+        // The nodes parsed so far, against the limit of the tree's size
+        int nodeCount;
+
+        ParseContext(ParseLimits limits) {
+            this.limits = limits;
+        }
 
-        for (int i =0; i < arr.size(); i ++) {
+        /**
+         * Take nodes from the tree's size limit, for the children of a lazy node. Synchronized, since the lazy
+         * nodes of a tree may be parsed on several threads
+         * @param count the number of nodes wanted
+         * @return the number of nodes taken, which is less than wanted once the tree is full
+         */
+        synchronized int takeNodes(int count) {
+            int taken = Math.max(0, Math.min(count, limits.mMaxNodes - nodeCount));
+            nodeCount += taken;
+            return taken;
+        }
 
-            JsonElement elem = arr.get(i);
+        String intern(String s) {
+            return dictionary.intern(s);
+        }
 
-            if (elem.isJsonObject()) {
-                Explain.Node child = node.addChild(String.format("[%d]", i+1));
-                parseMap(elem.getAsJsonObject(), child);
+        /**
+         * The title of an array element. Arrays of the same length share all their titles
+         */
+        String arrayTitle(int i) {
+            return dictionary.intern(String.format("[%d]", i+1));
+        }
+    }
 
-            } else if(elem.isJsonArray()) {
-                Explain.Node child = node.addChild(String.format("[%d]", i+1));
-                parseArray(elem.getAsJsonArray(), child);
-            } else {
 
-                node.addValue(elem.toString());
+    /**
+     * An object or array that is being parsed, on the parse stack
+     */
+    static class Frame {
+        final Explain.Node node;
+        final boolean array;
+        // The entries that were added as children, and the ones that were left out
+        int children;
+        int elided;
+
+        // For parsing a json DOM
+        Iterator<JsonElement> elements;
+        Iterator<Map.Entry<String, JsonElement>> members;
+
+        // For parsing a json stream - the child index of each key of an object so far, or -1 for elided keys
+        HashMap<String, Integer> keys;
+
+        Frame(Explain.Node node, boolean array) {
+            this.node = node;
+            this.array = array;
+        }
+
+        /**
+         * Look up an object key in the entries so far, remembering it if it's new. A repeated key replaces
+         * the earlier value in its place, just like gson's JsonObject does on the DOM path
+         * @param index the index the key's child will have, or -1 if it is elided
+         * @return the index of the earlier entry's child, -1 if it was elided, or null if the key is new
+         */
+        Integer addKey(String key, int index) {
+            if (keys == null) {
+                keys = new HashMap<String, Integer>();
+            }
+            Integer previous = keys.get(key);
+            if (previous == null) {
+                keys.put(key, index);
+            }
+            return previous;
+        }
+
+        /**
+         * Add the value that stands for the elided entries, if there were any
+         */
+        void finish() {
+            if (elided > 0) {
+                node.addValue(ParseLimits.elided(elided));
+            }
+        }
+    }
+
+    /**
+     * Whether the next entry of a frame is over the limits
+     */
+    boolean isFull(ParseContext context, Frame frame) {
+        return frame.children >= mLimits.mMaxChildren || context.nodeCount >= mLimits.mMaxNodes;
+    }
+
+    /**
+     * Add a parsed primitive as a child
+     * @param key the key in the parent map, or null for array elements
+     */
+    void addValue(ParseContext context, Explain.Node node, String key, String value) {
+        if (key == null) {
+            node.addValue(context.intern(value));
+        } else {
+            node.addValue(context.intern(key), context.intern(value));
+        }
+        context.nodeCount++;
+    }
+
+    /**
+     * Add a child node for an object or array, and push it to be parsed, unless it is too deep
+     * @param stack the parse stack, with the parent's frame on top
+     * @param size the number of entries, only used if they are elided
+     * @return the new frame, or null if the contents are elided
+     */
+    Frame pushChild(ParseContext context, ArrayList<Frame> stack, String title, boolean array, int size) {
+        Explain.Node child = stack.get(stack.size() - 1).node.addChild(title);
+        context.nodeCount++;
+        // The parent's frame is at the depth of the parent, so the stack's size is the child's depth
+        if (stack.size() >= mLimits.mMaxDepth) {
+            if (size > 0) {
+                child.addValue(ParseLimits.elided(size));
             }
+            return null;
         }
+        Frame frame = new Frame(child, array);
+        stack.add(frame);
+        return frame;
     }
 
     /**
-     * Internal function - parse a json map object into an explain node, recursively
+     * Internal function - parse a json map object into an explain node. Nested objects and arrays are
+     * parsed with an explicit stack, so deep documents don't overflow the thread's stack
      * @param obj the map boject
      * @param node the node representing the map. Each entry in the json map is rendered as a child
      *             of that node
      */
+    void parseMap(JsonObject obj, Explain.Node node, ParseContext context) {
+        ArrayList<Frame> stack = new ArrayList<Frame>();
+        Frame root = new Frame(node, false);
+        root.members = obj.entrySet().iterator();
+        stack.add(root);
+
+        while (!stack.isEmpty()) {
+            Frame frame = stack.get(stack.size() - 1);
+            boolean hasNext = frame.array ? frame.elements.hasNext() : frame.members.hasNext();
+            if (!hasNext) {
+                frame.finish();
+                stack.remove(stack.size() - 1);
+                continue;
+            }
 
-    void parseMap(JsonObject obj, Explain.Node node) {
+            String key = null;
+            JsonElement value;
+            if (frame.array) {
+                value = frame.elements.next();
+            } else {
+                Map.Entry<String, JsonElement> entry = frame.members.next();
+                key = entry.getKey();
+                value = entry.getValue();
+            }
+            if (isFull(context, frame)) {
+                frame.elided++;
+                continue;
+            }
+            int i = frame.children++;
+
+            if (value.isJsonObject()) {
+                JsonObject map = value.getAsJsonObject();
+                Frame child = pushChild(context, stack, key != null ? context.intern(key) : context.arrayTitle(i), false,
+                        map.entrySet().size());
+                if (child != null) {
+                    child.members = map.entrySet().iterator();
+                }
+            } else if (value.isJsonArray()) {
+                JsonArray arr = value.getAsJsonArray();
+                Frame child = pushChild(context, stack, key != null ? context.intern(key) : context.arrayTitle(i), true,
+                        arr.size());
+                if (child != null) {
+                    child.elements = arr.iterator();
+                }
+            } else {
+                addValue(context, frame.node, key, primitiveText(value));
+            }
+        }
+    }
 
+    /**
+     * Internal function - render a primitive json element like JsonElement.toString(), with long strings cut
+     */
+    String primitiveText(JsonElement value) {
+        if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isString()) {
+            return new JsonPrimitive(mLimits.truncate(value.getAsString())).toString();
+        }
+        return value.toString();
+    }
 
-        for (Map.Entry<String, JsonElement> entry : obj.entrySet()) {
-            String key = entry.getKey();
-            JsonElement value = entry.getValue();
 
-            if (value.isJsonObject()) {
-                Explain.Node child = node.addChild(key);
-                parseMap(value.getAsJsonObject(), child);
+    /**
+     * Internal function - render the current primitive token exactly as JsonElement.toString() would,
+     * so that the streaming and the DOM paths produce the same values
+     */
+    String readPrimitive(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+                return new JsonPrimitive(mLimits.truncate(reader.nextString())).toString();
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            case NULL:
+                reader.nextNull();
+                return "null";
+            default:
+                // Numbers keep their literal text, just like gson's lazily parsed numbers
+                return reader.nextString();
+        }
+    }
 
-            } else if(value.isJsonArray()) {
-                Explain.Node child = node.addChild(key);
-                parseArray(value.getAsJsonArray(), child);
-            }  else {
+    /**
+     * Internal function - parse a streamed json map object into an explain node. Nested objects and arrays are
+     * parsed with an explicit stack, so deep documents don't overflow the thread's stack
+     * @param reader a reader positioned at the beginning of the map
+     * @param node the node representing the map
+     */
+    void parseMap(JsonReader reader, Explain.Node node, ParseContext context) throws IOException {
+        ArrayList<Frame> stack = new ArrayList<Frame>();
+        reader.beginObject();
+        stack.add(new Frame(node, false));
+
+        while (!stack.isEmpty()) {
+            Frame frame = stack.get(stack.size() - 1);
+            if (!reader.hasNext()) {
+                if (frame.array) {
+                    reader.endArray();
+                } else {
+                    reader.endObject();
+                }
+                frame.finish();
+                stack.remove(stack.size() - 1);
+                continue;
+            }
 
-                node.addValue(key, value.toString());
+            String key = frame.array ? null : reader.nextName();
+            boolean full = isFull(context, frame);
+            Integer previous = key != null ? frame.addKey(key, full ? -1 : frame.children) : null;
+            if (previous != null && previous < 0) {
+                // The key was already elided
+                reader.skipValue();
+                continue;
+            }
+            if (previous == null && full) {
+                reader.skipValue();
+                frame.elided++;
+                continue;
+            }
+            int i = previous != null ? previous : frame.children++;
+
+            JsonToken token = reader.peek();
+            if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+                boolean array = token == JsonToken.BEGIN_ARRAY;
+                String title = key != null ? context.intern(key) : context.arrayTitle(i);
+                if (stack.size() >= mLimits.mMaxDepth) {
+                    pushChild(context, stack, title, array, skipEntries(reader, array));
+                } else if (array) {
+                    reader.beginArray();
+                    pushChild(context, stack, title, true, 0);
+                } else {
+                    reader.beginObject();
+                    pushChild(context, stack, title, false, 0);
+                }
+            } else {
+                addValue(context, frame.node, key, readPrimitive(reader));
+            }
+            if (previous != null) {
+                frame.node.replaceWithLast(i);
+                context.nodeCount--;
             }
         }
     }
 
+    /**
+     * Skip an object or array, counting its entries. Repeated keys of an object are counted once
+     */
+    int skipEntries(JsonReader reader, boolean array) throws IOException {
+        int count = 0;
+        HashSet<String> keys = array ? null : new HashSet<String>();
+        if (array) {
+            reader.beginArray();
+        } else {
+            reader.beginObject();
+        }
+        while (reader.hasNext()) {
+            if (!array && !keys.add(reader.nextName())) {
+                count--;
+            }
+            // Skipping doesn't recurse, so nested values are fine at any depth
+            reader.skipValue();
+            count++;
+        }
+        if (array) {
+            reader.endArray();
+        } else {
+            reader.endObject();
+        }
+        return count;
+    }
+
 
     /**
      * Parse a json string into an Explain tree, with the root being a node with the given title
@@ -88,8 +389,52 @@ public class JSONExplainBridge {
      * @return an explain tree node
      */
     public Explain.Node parseJSON(String rawJson, String title, boolean expanded) {
-        JsonElement root = mParser.parse(rawJson);
-        return parseJSON(root, title, expanded);
+        try {
+            return parseJSON(new StringReader(rawJson), title, expanded);
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+
+    /**
+     * Parse a json stream into an Explain tree, with the root being a node with the given title.
+     * The tree is built straight from the stream's tokens, without building a JSON DOM first
+     * @param in a UTF-8 encoded stream of the JSON representing the tree
+     * @param title The title of the tree's root node
+     * @param expanded whether the tree root should be expanded
+     * @return an explain tree node
+     */
+    public Explain.Node parseJSON(InputStream in, String title, boolean expanded) throws IOException {
+        return parseJSON(new BufferedReader(new InputStreamReader(in, "UTF-8")), title, expanded);
+    }
+
+
+    /**
+     * Parse a json stream into an Explain tree, with the root being a node with the given title.
+     * The tree is built straight from the stream's tokens, without building a JSON DOM first
+     * @param in a reader of the JSON representing the tree
+     * @param title The title of the tree's root node
+     * @param expanded whether the tree root should be expanded
+     * @return an explain tree node
+     */
+    public Explain.Node parseJSON(Reader in, String title, boolean expanded) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        // Same leniency as gson's JsonParser, which we used to build the DOM with
+        reader.setLenient(true);
+
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            throw new RuntimeException("Invalid JSON: Root must be a dictionary");
+        }
+
+        Explain.Node tree = new Explain.Node(title, null, expanded);
+        parseMap(reader, tree, new ParseContext(mLimits));
+
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new JsonSyntaxException("Did not consume the entire document.");
+        }
+
+        return finish(tree);
     }
 
 
@@ -106,9 +451,56 @@ public class JSONExplainBridge {
         }
 
         Explain.Node tree = new Explain.Node(title, null, expanded);
-        parseMap(root.getAsJsonObject(), tree);
+        parseMap(root.getAsJsonObject(), tree, new ParseContext(mLimits));
 
-        return tree;
+        return finish(tree);
+    }
+
+
+    /**
+     * Lazily parse UTF-8 encoded json bytes into an Explain tree, with the root being a node with the given title.
+     * Only a cheap pre-scan of the root is done here - every object or array is parsed into children
+     * the first time its children are accessed, so huge documents where only the top levels are
+     * looked at open almost instantly. The buffer must not be modified while the tree is in use.
+     * The parse limits apply to lazy trees as well - the limit on the tree's size counts the nodes that
+     * were parsed so far, in the order their parents were first opened or sized.
+     *
+     * The pre-scan checks that the whole document is strict JSON. Documents that are not - with comments,
+     * unquoted keys or single quotes - are parsed in full by the lenient streaming parser instead.
+     * @param json the JSON representing the tree
+     * @param title The title of the tree's root node
+     * @param expanded whether the tree root should be expanded
+     * @return an explain tree node
+     */
+    public Explain.Node parseLazy(ByteBuffer json, String title, boolean expanded) {
+        JsonSpanScanner scanner = new JsonSpanScanner(json);
+
+        int start = json.position();
+        // Skip a UTF-8 byte order mark
+        if (json.limit() - start >= 3 && json.get(start) == (byte) 0xEF && json.get(start + 1) == (byte) 0xBB
+                && json.get(start + 2) == (byte) 0xBF) {
+            start += 3;
+        }
+        start = scanner.skipWhitespace(start);
+
+        if (start >= json.limit() || json.get(start) != '{') {
+            throw new RuntimeException("Invalid JSON: Root must be a dictionary");
+        }
+
+        try {
+            scanner.scanDocument(start);
+        } catch (IllegalStateException e) {
+            ByteBuffer document = json.duplicate();
+            document.position(start);
+            try {
+                return parseJSON(new BufferedReader(new InputStreamReader(new ByteBufferInputStream(document), "UTF-8")),
+                        title, expanded);
+            } catch (IOException ioe) {
+                throw new JsonSyntaxException(ioe);
+            }
+        }
+        return new LazyJsonNode(title, expanded, json, start, scanner.mCount, scanner.mDuplicates > 0, 0,
+                new ParseContext(mLimits));
     }
 
 }
@@ -0,0 +1,349 @@
+package me.everything.plaxien.json;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * A cheap scanner over UTF-8 encoded JSON bytes. It finds the spans of values and counts the entries of
+ * objects and arrays without decoding or allocating anything, so that lazy nodes can know their size
+ * and where their children are before parsing them.
+ *
+ * The scanner only reads the buffer with absolute gets, so several scanners can share one buffer.
+ * It expects strict JSON - comments and unquoted strings are not supported. {@link #scanDocument} checks
+ * that a whole document is strict JSON up front, so that the spans found later can be trusted.
+ *
+ * The direct keys of an object are decoded while counting, since a repeated key replaces the earlier
+ * value instead of adding an entry, just like in gson's JsonObject.
+ */
+class JsonSpanScanner {
+
+    final ByteBuffer mBuffer;
+    final int mLimit;
+
+    // Results of the last scanContainer() call
+    int mEnd;
+    int mCount;
+    // The entries of an object that repeat an earlier key, which mCount leaves out
+    int mDuplicates;
+
+    // The keys of the object being scanned
+    final HashSet<String> mKeys = new HashSet<String>();
+
+    JsonSpanScanner(ByteBuffer buffer) {
+        mBuffer = buffer;
+        mLimit = buffer.limit();
+    }
+
+    byte byteAt(int pos) {
+        if (pos >= mLimit) {
+            throw new IllegalStateException("Unexpected end of JSON at offset " + pos);
+        }
+        return mBuffer.get(pos);
+    }
+
+    /**
+     * @return the offset of the first non whitespace byte at or after pos
+     */
+    int skipWhitespace(int pos) {
+        while (pos < mLimit) {
+            byte b = mBuffer.get(pos);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @param pos the offset of the opening quote
+     * @return the offset right after the closing quote
+     */
+    int skipString(int pos) {
+        pos++;
+        while (true) {
+            byte b = byteAt(pos);
+            if (b == '"') {
+                return pos + 1;
+            }
+            pos += b == '\\' ? 2 : 1;
+        }
+    }
+
+    /**
+     * @param pos the offset of a number, boolean or null literal
+     * @return the offset right after the literal
+     */
+    int skipLiteral(int pos) {
+        while (pos < mLimit) {
+            byte b = mBuffer.get(pos);
+            if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Remember a direct key of the object being scanned, counting it in mDuplicates if it was seen before
+     * @param pos the offset of the key's opening quote
+     * @param end the offset right after its closing quote
+     */
+    void addKey(int pos, int end) {
+        if (!mKeys.add(readString(pos, end))) {
+            mDuplicates++;
+        }
+    }
+
+    /**
+     * Scan an object or an array, setting mEnd to the offset right after it,
+     * and mCount to the number of its direct entries, with repeated keys counted once
+     * @param pos the offset of the opening brace or bracket
+     */
+    void scanContainer(int pos) {
+        int depth = 0;
+        int count = 0;
+        boolean empty = true;
+        boolean object = byteAt(pos) == '{';
+        // Whether the next direct string is a key
+        boolean key = object;
+        mKeys.clear();
+        mDuplicates = 0;
+
+        while (true) {
+            byte b = byteAt(pos);
+            switch (b) {
+                case '"':
+                    int end = skipString(pos);
+                    if (depth == 1) {
+                        empty = false;
+                        if (key) {
+                            addKey(pos, end);
+                            key = false;
+                        }
+                    }
+                    pos = end;
+                    continue;
+                case '{':
+                case '[':
+                    if (depth == 1) {
+                        empty = false;
+                    }
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    if (depth == 0) {
+                        mEnd = pos + 1;
+                        mCount = empty ? 0 : count + 1 - mDuplicates;
+                        return;
+                    }
+                    break;
+                case ',':
+                    if (depth == 1) {
+                        count++;
+                        key = object;
+                    }
+                    break;
+                case ' ':
+                case '\n':
+                case '\r':
+                case '\t':
+                    break;
+                default:
+                    if (depth == 1) {
+                        empty = false;
+                    }
+                    break;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Check that a whole document is a single strict JSON value, followed by nothing but whitespace.
+     * If it is, mEnd and mCount are set for the value like {@link #scanContainer} would.
+     * Containers are tracked with an explicit stack, so deep documents are fine
+     * @param pos the offset of the value
+     * @throws IllegalStateException if the document is not strict JSON
+     */
+    void scanDocument(int pos) {
+        // The closing byte of each open container
+        byte[] stack = new byte[64];
+        int depth = 0;
+        int count = 0;
+        mKeys.clear();
+        mDuplicates = 0;
+
+        while (true) {
+            // A value is expected at pos
+            if (depth == 1) {
+                count++;
+            }
+            byte b = byteAt(pos);
+            if (b == '{' || b == '[') {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = b == '{' ? (byte) '}' : (byte) ']';
+                pos = skipWhitespace(pos + 1);
+                if (byteAt(pos) != stack[depth - 1]) {
+                    if (b == '{') {
+                        pos = skipKey(pos, depth == 1);
+                    }
+                    continue;
+                }
+                // An empty container - its closing byte is read below, like that of any other container
+            } else if (b == '"') {
+                pos = skipString(pos);
+            } else {
+                int end = skipLiteral(pos);
+                checkLiteral(pos, end);
+                pos = end;
+            }
+
+            // After a value - close the containers it completes, until there's another value to read
+            while (true) {
+                if (depth == 0) {
+                    if (skipWhitespace(pos) != mLimit) {
+                        throw new IllegalStateException("Unexpected data after JSON at offset " + pos);
+                    }
+                    mEnd = pos;
+                    mCount = count - mDuplicates;
+                    return;
+                }
+                pos = skipWhitespace(pos);
+                b = byteAt(pos);
+                if (b == stack[depth - 1]) {
+                    depth--;
+                    pos++;
+                } else if (b == ',') {
+                    pos = skipWhitespace(pos + 1);
+                    if (stack[depth - 1] == '}') {
+                        pos = skipKey(pos, depth == 1);
+                    }
+                    break;
+                } else {
+                    throw new IllegalStateException("Unexpected character at offset " + pos);
+                }
+            }
+        }
+    }
+
+    /**
+     * Skip an object key and its colon
+     * @param direct whether the key belongs to the scanned value itself, so it's remembered with addKey
+     * @return the offset of the key's value
+     */
+    int skipKey(int pos, boolean direct) {
+        if (byteAt(pos) != '"') {
+            throw new IllegalStateException("Expected a quoted key at offset " + pos);
+        }
+        int end = skipString(pos);
+        if (direct) {
+            addKey(pos, end);
+        }
+        pos = skipWhitespace(end);
+        if (byteAt(pos) != ':') {
+            throw new IllegalStateException("Expected a colon at offset " + pos);
+        }
+        return skipWhitespace(pos + 1);
+    }
+
+    /**
+     * Check that a literal is true, false, null or a number
+     */
+    void checkLiteral(int pos, int end) {
+        int length = end - pos;
+        if ((length == 4 && (matches(pos, "true") || matches(pos, "null"))) || (length == 5 && matches(pos, "false"))) {
+            return;
+        }
+
+        // -?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?
+        int i = pos;
+        if (i < end && mBuffer.get(i) == '-') {
+            i++;
+        }
+        int digits = skipDigits(i, end);
+        boolean valid = digits > i && (mBuffer.get(i) != '0' || digits == i + 1);
+        i = digits;
+        if (valid && i < end && mBuffer.get(i) == '.') {
+            digits = skipDigits(i + 1, end);
+            valid = digits > i + 1;
+            i = digits;
+        }
+        if (valid && i < end && (mBuffer.get(i) == 'e' || mBuffer.get(i) == 'E')) {
+            i++;
+            if (i < end && (mBuffer.get(i) == '+' || mBuffer.get(i) == '-')) {
+                i++;
+            }
+            digits = skipDigits(i, end);
+            valid = digits > i;
+            i = digits;
+        }
+        if (!valid || i != end) {
+            throw new IllegalStateException("Invalid JSON literal at offset " + pos);
+        }
+    }
+
+    boolean matches(int pos, String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (mBuffer.get(pos + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int skipDigits(int pos, int end) {
+        while (pos < end && mBuffer.get(pos) >= '0' && mBuffer.get(pos) <= '9') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Decode the string starting at pos
+     * @param pos the offset of the opening quote
+     * @param end the offset right after the closing quote
+     */
+    String readString(int pos, int end) {
+        byte[] bytes = new byte[end - pos];
+        boolean escaped = false;
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = mBuffer.get(pos + i);
+            escaped |= bytes[i] == '\\';
+        }
+
+        try {
+            if (!escaped) {
+                return new String(bytes, 1, bytes.length - 2, "UTF-8");
+            }
+
+            // Escapes are rare in explain keys, so we let gson deal with them
+            JsonReader reader = new JsonReader(new StringReader(new String(bytes, "UTF-8")));
+            reader.setLenient(true);
+            return reader.nextString();
+        } catch (IOException e) {
+            throw new IllegalStateException("Invalid JSON string at offset " + pos, e);
+        }
+    }
+
+    /**
+     * Read a number, boolean or null literal as is
+     */
+    String readLiteral(int pos, int end) {
+        char[] chars = new char[end - pos];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) mBuffer.get(pos + i);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,220 @@
+package me.everything.plaxien.json;
+
+import android.util.Log;
+
+import com.google.gson.JsonPrimitive;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import me.everything.plaxien.Explain;
+
+/**
+ * An explain node representing a JSON object or array that has not been parsed yet.
+ * It only keeps the offset of its span in the JSON bytes, and the number of entries found by a
+ * pre-scan. The children are parsed the first time they are accessed, one level at a time -
+ * nested objects and arrays become lazy nodes themselves, unless they are too deep.
+ *
+ * The node takes its children from the tree's node limit the first time it is sized or opened, so
+ * its size never changes once the adapter has seen it.
+ */
+class LazyJsonNode extends Explain.Node {
+
+    // Transient so that gson never tries to serialize the raw bytes
+    transient ByteBuffer mJson;
+    transient int mOffset;
+    transient int mCount;
+    // Whether the pre-scan found repeated keys, which replace the earlier entry instead of adding one
+    transient boolean mRepeatedKeys;
+    // The depth of the node, where the root is at depth 0
+    transient int mDepth;
+    // The number of entries that are parsed, the rest are elided. -1 until taken from the node limit
+    transient int mParsed = -1;
+    // Shared by all the lazy nodes of a tree
+    transient JSONExplainBridge.ParseContext mContext;
+
+    LazyJsonNode(String title, boolean expanded, ByteBuffer json, int offset, int count, boolean repeatedKeys,
+                 int depth, JSONExplainBridge.ParseContext context) {
+        super(title, null, expanded);
+        mJson = json;
+        mOffset = offset;
+        mCount = count;
+        mRepeatedKeys = repeatedKeys;
+        mDepth = depth;
+        mContext = context;
+    }
+
+    @Override
+    public synchronized int size() {
+        if (mJson == null) {
+            return super.size();
+        }
+        int parsed = takeNodes();
+        return mCount > parsed ? parsed + 1 : parsed;
+    }
+
+    /**
+     * @return the number of entries that are parsed, taking them from the tree's node limit the first time
+     */
+    int takeNodes() {
+        if (mParsed < 0) {
+            mParsed = mContext.takeNodes(Math.min(mCount, mContext.limits.mMaxChildren));
+        }
+        return mParsed;
+    }
+
+    @Override
+    protected synchronized boolean isLoaded() {
+        return mJson == null;
+    }
+
+    @Override
+    protected synchronized void loadChildren() {
+        if (mJson == null) {
+            return;
+        }
+
+        takeNodes();
+        JsonSpanScanner scanner = new JsonSpanScanner(mJson);
+        try {
+            if (mJson.get(mOffset) == '{') {
+                parseMap(scanner);
+            } else {
+                parseArray(scanner);
+            }
+        } catch (RuntimeException e) {
+            // Malformed regions are only found when opened, so we show the error inside the node
+            Log.e("LazyJsonNode", "Could not parse JSON at offset " + mOffset, e);
+            addValue("Could not parse explain JSON", e.getMessage());
+        }
+
+        trimToSize(true);
+
+        // Once loaded, the node is a plain node and no longer holds on to the buffer
+        mJson = null;
+    }
+
+    void parseMap(JsonSpanScanner scanner) {
+        int pos = scanner.skipWhitespace(mOffset + 1);
+        // The child index of each key so far, or -1 for elided keys. Only kept if some key is repeated
+        HashMap<String, Integer> keys = mRepeatedKeys ? new HashMap<String, Integer>() : null;
+        int parsed = 0;
+        while (scanner.byteAt(pos) != '}') {
+            if (parsed == mParsed && keys == null) {
+                // The entries after the limit are never read, the pre-scan already counted them
+                break;
+            }
+            int keyEnd = scanner.skipString(pos);
+            String key = scanner.readString(pos, keyEnd);
+
+            // Skip the colon
+            pos = scanner.skipWhitespace(scanner.skipWhitespace(keyEnd) + 1);
+
+            Integer previous = keys != null ? keys.get(key) : null;
+            if (previous == null && parsed == mParsed) {
+                // Past the limit, but read on in case a later entry repeats a parsed key
+                keys.put(key, -1);
+                pos = skipValue(scanner, pos);
+            } else if (previous != null && previous < 0) {
+                pos = skipValue(scanner, pos);
+            } else if (previous != null) {
+                // A repeated key replaces the earlier value in its place, just like JSONExplainBridge does
+                pos = parseValue(scanner, mContext.intern(key), pos, false);
+                replaceWithLast(previous);
+            } else {
+                if (keys != null) {
+                    keys.put(key, parsed);
+                }
+                pos = parseValue(scanner, mContext.intern(key), pos, false);
+                parsed++;
+            }
+        }
+        addElided();
+    }
+
+    void parseArray(JsonSpanScanner scanner) {
+        int pos = scanner.skipWhitespace(mOffset + 1);
+        for (int i = 0; scanner.byteAt(pos) != ']' && i < mParsed; i++) {
+            pos = parseValue(scanner, mContext.arrayTitle(i), pos, true);
+        }
+        addElided();
+    }
+
+    void addElided() {
+        if (mCount > mParsed) {
+            addValue(ParseLimits.elided(mCount - mParsed));
+        }
+    }
+
+    /**
+     * Add the value at pos as a child, just like JSONExplainBridge would
+     * @return the offset of the next entry, or of the closing brace or bracket
+     */
+    int parseValue(JsonSpanScanner scanner, String title, int pos, boolean nameless) {
+        byte b = scanner.byteAt(pos);
+        int end;
+
+        if (b == '{' || b == '[') {
+            scanner.scanContainer(pos);
+            end = scanner.mEnd;
+            if (mDepth + 1 >= mContext.limits.mMaxDepth) {
+                // Too deep, the contents are elided just like JSONExplainBridge does
+                Explain.Node child = addChild(title);
+                if (scanner.mCount > 0) {
+                    child.addValue(ParseLimits.elided(scanner.mCount));
+                }
+            } else {
+                addChild(new LazyJsonNode(title, false, mJson, pos, scanner.mCount, scanner.mDuplicates > 0,
+                        mDepth + 1, mContext));
+            }
+        } else {
+            String value;
+            if (b == '"') {
+                end = scanner.skipString(pos);
+                value = new JsonPrimitive(mContext.limits.truncate(scanner.readString(pos, end))).toString();
+            } else {
+                end = scanner.skipLiteral(pos);
+                value = scanner.readLiteral(pos, end);
+            }
+            value = mContext.intern(value);
+
+            if (nameless) {
+                addValue(value);
+            } else {
+                addValue(title, value);
+            }
+        }
+
+        return nextEntry(scanner, end);
+    }
+
+    /**
+     * Skip the value at pos without adding it
+     * @return the offset of the next entry, or of the closing brace
+     */
+    int skipValue(JsonSpanScanner scanner, int pos) {
+        byte b = scanner.byteAt(pos);
+        int end;
+        if (b == '{' || b == '[') {
+            scanner.scanContainer(pos);
+            end = scanner.mEnd;
+        } else if (b == '"') {
+            end = scanner.skipString(pos);
+        } else {
+            end = scanner.skipLiteral(pos);
+        }
+        return nextEntry(scanner, end);
+    }
+
+    /**
+     * @param end the offset right after a value
+     * @return the offset of the next entry, or of the closing brace or bracket
+     */
+    int nextEntry(JsonSpanScanner scanner, int end) {
+        int pos = scanner.skipWhitespace(end);
+        if (scanner.byteAt(pos) == ',') {
+            pos = scanner.skipWhitespace(pos + 1);
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,78 @@
+package me.everything.plaxien.json;
+
+/**
+ * Limits on the explain trees parsed by {@link JSONExplainBridge}, so that a broken or huge server response
+ * can't take the app down. Whatever is over a limit is left out, and a "... N more elided" value is added
+ * in its place, so the tree still shows that something is missing.
+ *
+ * Lazily parsed trees obey the same limits. Since they are parsed one level at a time, their nodes are counted
+ * against the limit of the tree's size as their parents are first opened or sized, rather than in document order.
+ */
+public class ParseLimits {
+
+    public static final int DEFAULT_MAX_DEPTH = 128;
+    public static final int DEFAULT_MAX_CHILDREN = 100000;
+    public static final int DEFAULT_MAX_NODES = 500000;
+    public static final int DEFAULT_MAX_VALUE_LENGTH = 16 * 1024;
+
+    int mMaxDepth = DEFAULT_MAX_DEPTH;
+    int mMaxChildren = DEFAULT_MAX_CHILDREN;
+    int mMaxNodes = DEFAULT_MAX_NODES;
+    int mMaxValueLength = DEFAULT_MAX_VALUE_LENGTH;
+
+    /**
+     * Set how deep the tree may be. The contents of objects and arrays at this depth are elided,
+     * where the root's children are at depth 1
+     */
+    public ParseLimits setMaxDepth(int maxDepth) {
+        mMaxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Set how many children a node may have. Later entries of larger objects and arrays are elided
+     */
+    public ParseLimits setMaxChildren(int maxChildren) {
+        mMaxChildren = maxChildren;
+        return this;
+    }
+
+    /**
+     * Set how many nodes the whole tree may have. Once there are that many, the remaining entries
+     * of every object and array are elided - for lazily parsed trees, of every one that is opened afterwards
+     */
+    public ParseLimits setMaxNodes(int maxNodes) {
+        mMaxNodes = maxNodes;
+        return this;
+    }
+
+    /**
+     * Set how many characters of a string value are kept. Longer values are cut, and end with the count
+     * of the characters that were elided
+     */
+    public ParseLimits setMaxValueLength(int maxValueLength) {
+        mMaxValueLength = maxValueLength;
+        return this;
+    }
+
+    /**
+     * The text of the value added in place of what was left out
+     */
+    static String elided(int count) {
+        return "... " + count + " more elided";
+    }
+
+    String truncate(String value) {
+        if (value.length() <= mMaxValueLength) {
+            return value;
+        }
+        return value.substring(0, mMaxValueLength) + elided(value.length() - mMaxValueLength);
+    }
+
+    /**
+     * @return the number of children a node of that many entries has, with the elided value
+     */
+    int childCount(int entries) {
+        return entries > mMaxChildren ? mMaxChildren + 1 : entries;
+    }
+}